@@ -1,5 +1,6 @@
 package org.lsmr.vending.frontend1;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -115,6 +116,70 @@ public interface IVendingMachineFactory {
      */
     public void loadPops(int vmIndex, int popKindIndex, Pop... pops);
 
+    /**
+     * Loads count coins of the given value, as
+     * {@link #loadCoins(int, int, Coin...)} would with that many identical
+     * coins. By default this builds the array of coins; factories that can
+     * hold coins as counts should override it, so that loading takes the same
+     * time however many coins are loaded.
+     * 
+     * @param vmIndex
+     *            The index of the vending machine to use.
+     * @param coinKindIndex
+     *            The index of the coin kinds in which to add the coins.
+     * @param value
+     *            The value of each coin.
+     * @param count
+     *            The number of coins to add.
+     * @throws IndexOutOfBoundsException
+     *             As for {@link #loadCoins(int, int, Coin...)}.
+     * @throws IllegalArgumentException
+     *             If the count is negative, or if it is positive and the value
+     *             is not.
+     */
+    public default void loadCoins(int vmIndex, int coinKindIndex, int value, long count) {
+	if(count < 0)
+	    throw new IllegalArgumentException("counts cannot be negative");
+	if(count > Integer.MAX_VALUE - 8)
+	    throw new IllegalArgumentException("too many coins to load at once: " + count);
+	Coin[] coins = new Coin[(int)count];
+	if(count > 0)
+	    Arrays.fill(coins, new Coin(value));
+	loadCoins(vmIndex, coinKindIndex, coins);
+    }
+
+    /**
+     * Loads count pops of the given brand, as
+     * {@link #loadPops(int, int, Pop...)} would with that many identical pops.
+     * By default this builds the array of pops; factories that can hold pops
+     * as counts should override it, so that loading takes the same time
+     * however many pops are loaded.
+     * 
+     * @param vmIndex
+     *            The index of the vending machine to use.
+     * @param popKindIndex
+     *            The index of the pop kinds in which to add the pops.
+     * @param name
+     *            The name of each pop.
+     * @param count
+     *            The number of pops to add.
+     * @throws IndexOutOfBoundsException
+     *             As for {@link #loadPops(int, int, Pop...)}.
+     * @throws IllegalArgumentException
+     *             If the count is negative, or if it is positive and the name
+     *             is null or an empty string.
+     */
+    public default void loadPops(int vmIndex, int popKindIndex, String name, long count) {
+	if(count < 0)
+	    throw new IllegalArgumentException("counts cannot be negative");
+	if(count > Integer.MAX_VALUE - 8)
+	    throw new IllegalArgumentException("too many pops to load at once: " + count);
+	Pop[] pops = new Pop[(int)count];
+	if(count > 0)
+	    Arrays.fill(pops, new Pop(name));
+	loadPops(vmIndex, popKindIndex, pops);
+    }
+
     /**
      * Called to remove all coins and pops from the vending machine. The
      * returned list should have exactly three items in it in this order: a list
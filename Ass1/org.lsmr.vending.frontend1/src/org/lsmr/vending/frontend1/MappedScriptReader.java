@@ -0,0 +1,165 @@
+package org.lsmr.vending.frontend1;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads a script file by mapping it into memory, a large window at a time,
+ * and decoding it straight from the mapped bytes. As long as the script holds
+ * only ASCII characters, bytes are copied to characters without going through
+ * the charset decoder; from the first other byte on, the decoder takes over.
+ */
+class MappedScriptReader extends Reader {
+    private static final int WINDOW = 1 << 26;
+
+    private File file;
+    private FileChannel channel;
+    private long size;
+    private long windowStart;
+    private ByteBuffer bytes;
+    private CharsetDecoder decoder;
+    private boolean ascii;
+    private boolean flushed;
+
+    /**
+     * Room to decode a pair of surrogates when only one character is asked
+     * for, and the second of them while it waits to be read
+     */
+    private char[] pair = new char[2];
+    private boolean carrying;
+
+    /**
+     * Basic constructor. Decodes the file in the default charset, as a
+     * {@link java.io.FileReader} would.
+     * 
+     * @throws IOException
+     *             If the file does not exist or cannot be read.
+     */
+    public MappedScriptReader(File file) throws IOException {
+	this(file, Charset.defaultCharset());
+    }
+
+    /**
+     * Basic constructor.
+     * 
+     * @throws IOException
+     *             If the file does not exist or cannot be read.
+     */
+    public MappedScriptReader(File file, Charset charset) throws IOException {
+	this.file = file;
+	try(RandomAccessFile in = new RandomAccessFile(file, "r")) {
+	    channel = in.getChannel();
+	    size = channel.size();
+	    map(0);
+	}
+	channel = null;
+	decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+	        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+	ascii = isAsciiCompatible(charset);
+    }
+
+    /**
+     * @return true if the charset decodes each byte below 128 to the ASCII
+     *         character of the same code
+     */
+    private static boolean isAsciiCompatible(Charset charset) {
+	byte[] codes = new byte[128];
+	for(int i = 0; i < codes.length; i++)
+	    codes[i] = (byte)i;
+	String decoded = new String(codes, charset);
+	if(decoded.length() != codes.length)
+	    return false;
+	for(int i = 0; i < codes.length; i++)
+	    if(decoded.charAt(i) != i)
+		return false;
+	return true;
+    }
+
+    private void map(long start) throws IOException {
+	windowStart = start;
+	bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, size - start));
+    }
+
+    private boolean isLastWindow() {
+	return windowStart + bytes.limit() == size;
+    }
+
+    /**
+     * Moves the window on if few enough bytes are left in it that a
+     * character could be split over its end.
+     */
+    private void advance() throws IOException {
+	if(bytes.remaining() < 16 && !isLastWindow()) {
+	    try(RandomAccessFile in = new RandomAccessFile(file, "r")) {
+		channel = in.getChannel();
+		map(windowStart + bytes.position());
+	    }
+	    channel = null;
+	}
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+	if(bytes == null)
+	    throw new IOException("the reader is closed");
+	if(off < 0 || len < 0 || len > cbuf.length - off)
+	    throw new IndexOutOfBoundsException();
+	if(len == 0)
+	    return 0;
+	if(carrying) {
+	    cbuf[off] = pair[1];
+	    carrying = false;
+	    return 1;
+	}
+	while(true) {
+	    advance();
+	    int n = 0;
+	    if(ascii) {
+		int position = bytes.position();
+		int end = Math.min(bytes.limit(), position + len);
+		while(position < end) {
+		    byte b = bytes.get(position);
+		    if(b < 0) {
+			ascii = false;
+			break;
+		    }
+		    cbuf[off + n++] = (char)b;
+		    position++;
+		}
+		bytes.position(position);
+		if(n > 0)
+		    return n;
+	    }
+	    if(!ascii && !flushed) {
+		CharBuffer out = len == 1 ? CharBuffer.wrap(pair) : CharBuffer.wrap(cbuf, off, len);
+		boolean last = isLastWindow();
+		decoder.decode(bytes, out, last);
+		if(last && !bytes.hasRemaining() && decoder.flush(out).isUnderflow())
+		    flushed = true;
+		n = out.position() - (len == 1 ? 0 : off);
+		if(len == 1 && n > 0) {
+		    cbuf[off] = pair[0];
+		    carrying = n == 2;
+		    return 1;
+		}
+		if(n > 0)
+		    return n;
+	    }
+	    if(isLastWindow() && !bytes.hasRemaining() && (ascii || flushed))
+		return -1;
+	}
+    }
+
+    @Override
+    public void close() {
+	bytes = null;
+    }
+}
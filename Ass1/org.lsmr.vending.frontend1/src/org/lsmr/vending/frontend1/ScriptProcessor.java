@@ -1,19 +1,27 @@
 package org.lsmr.vending.frontend1;
 
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
 
 import org.lsmr.vending.frontend1.parser.ParseException;
 import org.lsmr.vending.frontend1.parser.Parser;
+import org.lsmr.vending.frontend1.parser.ScriptLexer;
 
 /**
  * Provides a simple facade class that interacts with the parser appropriately.
  */
 public class ScriptProcessor {
+    private long scriptSize;
+    private long elapsedNanos;
+
     /**
      * Basic constructor. Constructs a parser to read the script file located at
      * the indicated path. Registers the indicated factory with the parser.
-     * Attempts to parse and interpret the script.
+     * Attempts to parse and interpret the script. The file is read through a
+     * memory mapping in the default charset, and lexed by the hand-written
+     * ScriptLexer. Token positions are worked out from where lines start
+     * rather than kept for every character, and columns in error messages
+     * match those of the generated lexer.
      * 
      * @param path
      *            The file path to the script file to be read.
@@ -29,9 +37,72 @@ public class ScriptProcessor {
      *             If the script file does not conform to the correct syntax.
      */
     public ScriptProcessor(String path, IVendingMachineFactory factory, boolean debug) throws IOException, ParseException {
-	Parser p = new Parser(new FileReader(path));
+	this(path, factory, debug, false);
+    }
+
+    /**
+     * Constructor that can pipeline the script: lex and parse it on a
+     * separate thread, while this thread carries out the commands already
+     * parsed and reports their results in order. The factory is only called
+     * from this thread.
+     * 
+     * @param path
+     *            The file path to the script file to be read.
+     * @param factory
+     *            A factory object that allows vending machines to be created.
+     * @param debug
+     *            A flag that indicates whether debugging information should be
+     *            sent to the standard error stream.
+     * @param pipelined
+     *            A flag that indicates whether parsing should run on its own
+     *            thread.
+     * @throws IOException
+     *             If the path does not exist, or if the file located there
+     *             cannot be opened for whatever reason.
+     * @throws ParseException
+     *             If the script file does not conform to the correct syntax.
+     */
+    public ScriptProcessor(String path, IVendingMachineFactory factory, boolean debug, boolean pipelined)
+	    throws IOException, ParseException {
+	long start = System.nanoTime();
+	File file = new File(path);
+	scriptSize = file.length();
+	Parser p = new Parser(new ScriptLexer(new MappedScriptReader(file)));
 	p.register(factory);
 	p.setDebug(debug);
-	p.process(path);
+	if (pipelined)
+	    p.processPipelined(path);
+	else
+	    p.processBuffered(path);
+	elapsedNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Accessor for the size of the script.
+     * 
+     * @return The size of the script file, in bytes.
+     */
+    public long getScriptSize() {
+	return scriptSize;
+    }
+
+    /**
+     * Accessor for the processing time.
+     * 
+     * @return The time taken to parse and interpret the script, in
+     *         nanoseconds.
+     */
+    public long getElapsedNanos() {
+	return elapsedNanos;
+    }
+
+    /**
+     * Reports how fast the script was processed.
+     * 
+     * @return The size of the script divided by the time taken to parse and
+     *         interpret it, in megabytes (2^20 bytes) per second.
+     */
+    public double getThroughput() {
+	return elapsedNanos == 0 ? 0 : scriptSize / (double)(1 << 20) / (elapsedNanos / 1e9);
     }
 }
@@ -0,0 +1,108 @@
+package org.lsmr.vending.frontend1.parser;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded ring of reusable commands, through which one thread hands the
+ * commands it parses to one thread that carries them out. A thread that has
+ * to wait parks, and is only woken once a quarter of the ring is ready for
+ * it, so that the two threads do not take turns one command at a time.
+ */
+class CommandRing
+{
+  private final ScriptCommand[] slots;
+  private final int mask;
+  private final int batch;
+
+  /** Commands published so far; written only by the parsing thread. */
+  private volatile long head;
+  /** Commands released so far; written only by the executing thread. */
+  private volatile long tail;
+  private volatile boolean cancelled;
+  private volatile Thread producer;
+  private volatile Thread consumer;
+
+  /** Constructor, with a capacity that is a power of two. */
+  CommandRing(int capacity)
+  {
+    if (capacity < 4 || (capacity & (capacity - 1)) != 0)
+      throw new IllegalArgumentException("capacity must be a power of two, at least 4");
+    slots = new ScriptCommand[capacity];
+    for (int i = 0; i < capacity; i++)
+      slots[i] = new ScriptCommand();
+    mask = capacity - 1;
+    batch = capacity / 4;
+  }
+
+  /**
+   * Wait for a free slot and return it, with kind and error cleared, or
+   * return null once the ring has been cancelled.
+   */
+  ScriptCommand claim()
+  {
+    long h = head;
+    while (!cancelled && h - tail == slots.length)
+    {
+      producer = Thread.currentThread();
+      if (!cancelled && h - tail == slots.length)
+        LockSupport.park(this);
+      producer = null;
+    }
+    if (cancelled)
+      return null;
+    ScriptCommand c = slots[(int)h & mask];
+    c.kind = -1;
+    c.error = null;
+    return c;
+  }
+
+  /** Hand the claimed command over. */
+  void publish()
+  {
+    head = head + 1;
+    Thread t = consumer;
+    if (t != null && head - tail >= batch)
+      LockSupport.unpark(t);
+  }
+
+  /** Hand the claimed command over as the last one. */
+  void publishLast()
+  {
+    head = head + 1;
+    Thread t = consumer;
+    if (t != null)
+      LockSupport.unpark(t);
+  }
+
+  /** Wait for a published command and return it; it stays in place until released. */
+  ScriptCommand take()
+  {
+    long t = tail;
+    while (head == t)
+    {
+      consumer = Thread.currentThread();
+      if (head == t)
+        LockSupport.park(this);
+      consumer = null;
+    }
+    return slots[(int)t & mask];
+  }
+
+  /** Give the slot of the command last taken back to the parsing thread. */
+  void release()
+  {
+    tail = tail + 1;
+    Thread p = producer;
+    if (p != null && slots.length - (head - tail) >= batch)
+      LockSupport.unpark(p);
+  }
+
+  /** Stop the parsing thread at its next claim. */
+  void cancel()
+  {
+    cancelled = true;
+    Thread p = producer;
+    if (p != null)
+      LockSupport.unpark(p);
+  }
+}
@@ -160,12 +160,12 @@ public class Parser implements ParserConstants {
     vm.configureVendingMachine(vmIndex, popNames, popCosts);
   }
 
-  private void announceCoinLoad(int vmIndex, int coinKindIndex, Coin... coins) {
-    vm.loadCoins(vmIndex, coinKindIndex, coins);
+  private void announceCoinLoad(int vmIndex, int coinKindIndex, int value, long count) {
+    vm.loadCoins(vmIndex, coinKindIndex, value, count);
   }
 
-  private void announcePopLoad(int vmIndex, int popKindIndex, Pop... pops) {
-    vm.loadPops(vmIndex, popKindIndex, pops);
+  private void announcePopLoad(int vmIndex, int popKindIndex, String name, long count) {
+    vm.loadPops(vmIndex, popKindIndex, name, count);
   }
 
   private void announceUnload(int vmIndex) {
@@ -186,6 +186,364 @@ public class Parser implements ParserConstants {
     vm.insertCoin(vmIndex, coin);
   }
 
+  private TokenBuffer tokens;
+  private int next;
+
+  /** How many decoded commands processPipelined lets the parsing thread run ahead. */
+  private static final int PIPELINE_DEPTH = 1024;
+
+  /**
+   * Carries out a script like process, but takes its tokens from the token
+   * manager in batches through a reused TokenBuffer instead of as a linked
+   * list of Token objects. The report and the errors are those of process.
+   */
+  public void processBuffered(String path) throws ParseException {
+    startBuffered();
+    ScriptCommand command = new ScriptCommand();
+    int i = 0;
+    System.err.println("Script: " + path);
+    while (parseCommand(command))
+      report(i++, execute(command));
+    System.err.println();
+    expect(EOF);
+  }
+
+  /**
+   * Carries out a script like processBuffered, but lexes and parses it on a
+   * second thread, which hands the decoded commands over through a bounded
+   * ring. The calling thread carries the commands out and reports them, in
+   * order, so the factory is only used from the calling thread. An error met
+   * while parsing is raised once every command before it has been carried
+   * out, as in process.
+   */
+  public void processPipelined(String path) throws ParseException {
+    startBuffered();
+    final CommandRing ring = new CommandRing(PIPELINE_DEPTH);
+    Thread parser = new Thread("script parser") {
+      public void run() {
+        parseInto(ring);
+      }
+    };
+    parser.setDaemon(true);
+    System.err.println("Script: " + path);
+    parser.start();
+    try {
+      int i = 0;
+      while (true) {
+        ScriptCommand command = ring.take();
+        if (command.kind == EOF)
+          System.err.println();
+        if (command.error != null)
+          raise(command.error);
+        if (command.kind == EOF)
+          return;
+        boolean res = execute(command);
+        ring.release();
+        report(i++, res);
+      }
+    }
+    finally {
+      ring.cancel();
+      boolean interrupted = false;
+      while (parser.isAlive()) {
+        try {
+          parser.join();
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Parses commands into the ring until the end of the script, an error or
+   * cancellation. The end of the script, or the error, is published as a
+   * last command of kind EOF, or with its error set.
+   */
+  private void parseInto(CommandRing ring) {
+    ScriptCommand command = ring.claim();
+    if (command == null)
+      return;
+    try {
+      while (parseCommand(command)) {
+        ring.publish();
+        if ((command = ring.claim()) == null)
+          return;
+      }
+      command.kind = EOF;
+      expect(EOF);
+    }
+    catch (Throwable t) {
+      command.error = t;
+    }
+    ring.publishLast();
+  }
+
+  private static void raise(Throwable t) throws ParseException {
+    if (t instanceof ParseException)
+      throw (ParseException)t;
+    if (t instanceof RuntimeException)
+      throw (RuntimeException)t;
+    throw (Error)t;
+  }
+
+  private void startBuffered() {
+    if (tokens == null)
+      tokens = new TokenBuffer();
+    tokens.clear();
+    next = 0;
+  }
+
+  private void report(int i, boolean res) {
+    System.err.print("Command #" + i + ": ");
+    if(res)
+      System.err.println("PASS");
+    else
+      System.err.println("FAIL");
+  }
+
+  /**
+   * Carries out a decoded command.
+   *
+   * @return whether it passed; only checks can fail
+   */
+  private boolean execute(ScriptCommand c) {
+    switch (c.kind) {
+    case CONSTRUCT:
+      announceConstruct(c.integers, c.value);
+      return true;
+    case CONFIGURE:
+      announceConfigure(c.vm, c.strings, c.integers);
+      return true;
+    case EXTRACT:
+      announceExtract(c.vm);
+      return true;
+    case PRESS:
+      announcePress(c.vm, c.index);
+      return true;
+    case INSERT:
+      announceInsert(c.vm, new Coin(c.value));
+      return true;
+    case COIN_LOAD:
+      announceCoinLoad(c.vm, c.index, c.value, c.count);
+      return true;
+    case POP_LOAD:
+      announcePopLoad(c.vm, c.index, c.name, c.count);
+      return true;
+    case UNLOAD:
+      announceUnload(c.vm);
+      return true;
+    case CHECK_DELIVERY:
+      return checkDelivery(c.value, c.strings);
+    case CHECK_TEARDOWN:
+      return checkTeardown(c.value, c.payments, c.strings);
+    default:
+      throw new IllegalStateException("not a command: " + c.kind);
+    }
+  }
+
+  /**
+   * Decodes the next command into c, or returns false, consuming nothing,
+   * if the next token does not start a command.
+   */
+  private boolean parseCommand(ScriptCommand c) throws ParseException {
+    // the tokens of finished commands are dropped between commands, so
+    // that indices into the buffer stay valid while a command is parsed
+    if (next >= 256) {
+      tokens.discard(next);
+      next = 0;
+    }
+    c.kind = tokens.getKind(peek());
+    switch (c.kind) {
+    case CONSTRUCT:
+      parseConstruct(c);
+      return true;
+    case CONFIGURE:
+      parseConfigure(c);
+      return true;
+    case EXTRACT:
+    case UNLOAD:
+      parseMachineOnly(c);
+      return true;
+    case PRESS:
+    case INSERT:
+      parseMachineAndInteger(c);
+      return true;
+    case COIN_LOAD:
+      parseCoinLoad(c);
+      return true;
+    case POP_LOAD:
+      parsePopLoad(c);
+      return true;
+    case CHECK_DELIVERY:
+      parseCheckDelivery(c);
+      return true;
+    case CHECK_TEARDOWN:
+      parseCheckTeardown(c);
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  /** The index of the next token, lexing another batch if none are left. */
+  private int peek() {
+    if (next == tokens.size()) {
+      if (tokens.getError() != null)
+        throw tokens.getError();
+      token_source.fill(tokens, 256);
+      if (next == tokens.size())
+        throw tokens.getError();
+    }
+    return next;
+  }
+
+  /** Consume the next token, which must be of the given kind, and return its index. */
+  private int expect(int kind) throws ParseException {
+    int t = peek();
+    if (tokens.getKind(t) != kind) {
+      String mess = (tokens.getKind(t) == EOF) ? tokenImage[EOF] : tokens.getImage(t);
+      throw new ParseException("Parse error at line " + tokens.getBeginLine(t) + ", column " + tokens.getBeginColumn(t) + ".  Encountered: " + mess);
+    }
+    next++;
+    return t;
+  }
+
+  /** Consume "[" vm "]" and return the index of the vm token. */
+  private int expectMachine() throws ParseException {
+    expect(27);
+    int vm = expect(INTEGER_LITERAL);
+    expect(28);
+    return vm;
+  }
+
+  /** A command of the form keyword([vm]). */
+  private void parseMachineOnly(ScriptCommand c) throws ParseException {
+    expect(c.kind);
+    expect(LPAREN);
+    int vm = expectMachine();
+    expect(RPAREN);
+    c.vm = tokens.getInt(vm);
+  }
+
+  /** A command of the form keyword([vm] n): a press of button n, or an insertion of a coin worth n. */
+  private void parseMachineAndInteger(ScriptCommand c) throws ParseException {
+    expect(c.kind);
+    expect(LPAREN);
+    int vm = expectMachine();
+    int t = expect(INTEGER_LITERAL);
+    expect(RPAREN);
+    c.vm = tokens.getInt(vm);
+    if (c.kind == PRESS)
+      c.index = tokens.getInt(t);
+    else
+      c.value = tokens.getInt(t);
+  }
+
+  private void parseConstruct(ScriptCommand c) throws ParseException {
+    ArrayList<Integer> coinKinds = c.integers = new ArrayList<Integer>();
+    expect(CONSTRUCT);
+    expect(LPAREN);
+    coinKinds.add(tokens.getInt(expect(INTEGER_LITERAL)));
+    while (tokens.getKind(peek()) == COMMA) {
+      expect(COMMA);
+      coinKinds.add(tokens.getInt(expect(INTEGER_LITERAL)));
+    }
+    expect(SEMICOLON);
+    c.value = tokens.getInt(expect(INTEGER_LITERAL));
+    expect(RPAREN);
+  }
+
+  private void parseConfigure(ScriptCommand c) throws ParseException {
+    ArrayList<String> names = c.strings = new ArrayList<String>();
+    ArrayList<Integer> costs = c.integers = new ArrayList<Integer>();
+    expect(CONFIGURE);
+    expect(LPAREN);
+    int vm = expectMachine();
+    int name = expect(STRING_LITERAL);
+    expect(COMMA);
+    int cost = expect(INTEGER_LITERAL);
+    names.add(tokens.getString(name));
+    costs.add(tokens.getInt(cost));
+    while (tokens.getKind(peek()) == SEMICOLON) {
+      expect(SEMICOLON);
+      name = expect(STRING_LITERAL);
+      expect(COMMA);
+      cost = expect(INTEGER_LITERAL);
+      names.add(tokens.getString(name));
+      costs.add(tokens.getInt(cost));
+    }
+    expect(RPAREN);
+    c.vm = tokens.getInt(vm);
+  }
+
+  private void parseCoinLoad(ScriptCommand c) throws ParseException {
+    expect(COIN_LOAD);
+    expect(LPAREN);
+    int vm = expectMachine();
+    int index = expect(INTEGER_LITERAL);
+    expect(SEMICOLON);
+    int coinValue = expect(INTEGER_LITERAL);
+    expect(COMMA);
+    int coinCount = expect(INTEGER_LITERAL);
+    expect(RPAREN);
+    c.value = tokens.getInt(coinValue);
+    c.count = tokens.getLong(coinCount);
+    c.vm = tokens.getInt(vm);
+    c.index = tokens.getInt(index);
+  }
+
+  private void parsePopLoad(ScriptCommand c) throws ParseException {
+    expect(POP_LOAD);
+    expect(LPAREN);
+    int vm = expectMachine();
+    int index = expect(INTEGER_LITERAL);
+    expect(SEMICOLON);
+    int popName = expect(STRING_LITERAL);
+    expect(COMMA);
+    int popCount = expect(INTEGER_LITERAL);
+    expect(RPAREN);
+    c.count = tokens.getLong(popCount);
+    c.vm = tokens.getInt(vm);
+    c.index = tokens.getInt(index);
+    c.name = tokens.getString(popName);
+  }
+
+  private void parseCheckDelivery(ScriptCommand c) throws ParseException {
+    ArrayList<String> pops = c.strings = new ArrayList<String>();
+    expect(CHECK_DELIVERY);
+    expect(LPAREN);
+    c.value = tokens.getInt(expect(INTEGER_LITERAL));
+    while (tokens.getKind(peek()) == COMMA) {
+      expect(COMMA);
+      pops.add(tokens.getString(expect(STRING_LITERAL)));
+    }
+    expect(RPAREN);
+  }
+
+  private void parseCheckTeardown(ScriptCommand c) throws ParseException {
+    ArrayList<String> pops = c.strings = new ArrayList<String>();
+    expect(CHECK_TEARDOWN);
+    expect(LPAREN);
+    c.value = tokens.getInt(expect(INTEGER_LITERAL));
+    expect(SEMICOLON);
+    c.payments = tokens.getInt(expect(INTEGER_LITERAL));
+    if (tokens.getKind(peek()) == SEMICOLON) {
+      expect(SEMICOLON);
+      if (tokens.getKind(peek()) == STRING_LITERAL) {
+        pops.add(tokens.getString(expect(STRING_LITERAL)));
+        while (tokens.getKind(peek()) == COMMA) {
+          expect(COMMA);
+          pops.add(tokens.getString(expect(STRING_LITERAL)));
+        }
+      }
+    }
+    expect(RPAREN);
+  }
+
   final public void process(String path) throws ParseException {
   boolean res;
   int i = 0;
@@ -336,13 +694,8 @@ public class Parser implements ParserConstants {
     coinCount = jj_consume_token(INTEGER_LITERAL);
     jj_consume_token(RPAREN);
     int v = Integer.parseInt(coinValue.image);
-    int c = Integer.parseInt(coinCount.image);
-    Coin[] coins = new Coin[c];
-    for(int i = 0, size = c; i < size; i++)
-    {
-      coins[i] = new Coin(v);
-    }
-    announceCoinLoad(Integer.parseInt(vm.image), Integer.parseInt(index.image), coins);
+    long c = Long.parseLong(coinCount.image);
+    announceCoinLoad(Integer.parseInt(vm.image), Integer.parseInt(index.image), v, c);
   }
 
   final public void PopLoad() throws ParseException {
@@ -358,13 +711,8 @@ public class Parser implements ParserConstants {
     jj_consume_token(COMMA);
     popCount = jj_consume_token(INTEGER_LITERAL);
     jj_consume_token(RPAREN);
-    int c = Integer.parseInt(popCount.image);
-    Pop[] pops = new Pop[c];
-    for(int i = 0, size = c; i < size; i++)
-    {
-        pops[i] = new Pop(popName.image);
-    }
-    announcePopLoad(Integer.parseInt(vm.image), Integer.parseInt(index.image), pops);
+    long c = Long.parseLong(popCount.image);
+    announcePopLoad(Integer.parseInt(vm.image), Integer.parseInt(index.image), popName.image, c);
   }
 
   final public boolean CHECK_DELIVERY() throws ParseException {
@@ -843,7 +843,47 @@ int jjmatchedKind;
 /** Get the next Token. */
 public Token getNextToken() 
 {
-  Token matchedToken;
+  jjNextKind();
+  return jjFillToken();
+}
+
+/**
+ * Lexes tokens into a buffer, appending at most max of them and stopping
+ * after the end of the input. A lexical error ends the batch and is kept by
+ * the buffer, to be raised once the tokens before it have been used. Unlike
+ * getNextToken, no Token object or image String is created.
+ *
+ * @return the number of tokens appended
+ */
+public int fill(TokenBuffer buffer, int max)
+{
+  int i = 0;
+  while (i < max)
+  {
+    int kind;
+    try
+    {
+      kind = jjNextKind();
+    }
+    catch (TokenMgrError e)
+    {
+      buffer.setError(e);
+      break;
+    }
+    if (kind == INTEGER_LITERAL || kind == STRING_LITERAL)
+      buffer.add(kind, input_stream.getBeginLine(), input_stream.getBeginColumn(), input_stream);
+    else
+      buffer.add(kind, input_stream.getBeginLine(), input_stream.getBeginColumn(), null);
+    i++;
+    if (kind == EOF)
+      break;
+  }
+  return i;
+}
+
+/** Match the next token, leaving its text in the input stream, and return its kind. */
+private int jjNextKind()
+{
   int curPos = 0;
 
   EOFLoop :
@@ -856,8 +896,7 @@ public Token getNextToken()
    catch(java.io.IOException e)
    {
       jjmatchedKind = 0;
-      matchedToken = jjFillToken();
-      return matchedToken;
+      return jjmatchedKind;
    }
    image = jjimage;
    image.setLength(0);
@@ -902,10 +941,9 @@ public Token getNextToken()
            input_stream.backup(curPos - jjmatchedPos - 1);
         if ((jjtoToken[jjmatchedKind >> 6] & (1L << (jjmatchedKind & 077))) != 0L)
         {
-           matchedToken = jjFillToken();
        if (jjnewLexState[jjmatchedKind] != -1)
          curLexState = jjnewLexState[jjmatchedKind];
-           return matchedToken;
+           return jjmatchedKind;
         }
         else if ((jjtoSkip[jjmatchedKind >> 6] & (1L << (jjmatchedKind & 077))) != 0L)
         {
@@ -0,0 +1,28 @@
+package org.lsmr.vending.frontend1.parser;
+
+import java.util.ArrayList;
+
+/**
+ * One command of a script, decoded by the parser but not yet carried out.
+ * Which fields are used depends on the kind of command.
+ */
+class ScriptCommand
+{
+  /** The kind of the keyword that starts the command, or EOF after the last one. */
+  int kind;
+  int vm;
+  /** The coin kind, pop kind or button. */
+  int index;
+  /** The coin value, the number of selection buttons, or the change a check expects. */
+  int value;
+  /** The payments CHECK_TEARDOWN expects. */
+  int payments;
+  long count;
+  String name;
+  /** The coin kinds of construct or the costs of configure. */
+  ArrayList<Integer> integers;
+  /** The names of configure or the pops a check expects. */
+  ArrayList<String> strings;
+  /** What parsing this command raised, to be raised when it would have been carried out. */
+  Throwable error;
+}
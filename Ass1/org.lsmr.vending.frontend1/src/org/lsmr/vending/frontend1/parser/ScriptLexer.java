@@ -0,0 +1,479 @@
+package org.lsmr.vending.frontend1.parser;
+
+/**
+ * A lexer written by hand for the script language, to use in place of the
+ * generated NFA in {@link ParserTokenManager}. Keywords are recognised by
+ * switching on their first character and comparing the rest, integers by a
+ * plain digit loop, and strings and comments by scanning for their end.
+ *
+ * The tokens, their positions and their images are those the generated
+ * token manager gives over a {@link SimpleCharStream}, with tabs expanded to
+ * the stream's tab size of 8. When the input cannot be
+ * lexed, the rest of it is handed to the generated token manager, so that
+ * the TokenMgrError raised is the one it would raise.
+ */
+public class ScriptLexer extends ParserTokenManager
+{
+  private static final char[] CONSTRUCT_CHARS = "construct".toCharArray();
+  private static final char[] CONFIGURE_CHARS = "configure".toCharArray();
+  private static final char[] COIN_LOAD_CHARS = "coin-load".toCharArray();
+  private static final char[] EXTRACT_CHARS = "extract".toCharArray();
+  private static final char[] PRESS_CHARS = "press".toCharArray();
+  private static final char[] POP_LOAD_CHARS = "pop-load".toCharArray();
+  private static final char[] INSERT_CHARS = "insert".toCharArray();
+  private static final char[] UNLOAD_CHARS = "unload".toCharArray();
+  private static final char[] CHECK_DELIVERY_CHARS = "CHECK_DELIVERY".toCharArray();
+  private static final char[] CHECK_TEARDOWN_CHARS = "CHECK_TEARDOWN".toCharArray();
+  private static final int TAB_SIZE = 8;
+
+  private java.io.Reader in;
+  private char[] buf;
+  /** Offset in the input of buf[0]. */
+  private long base;
+  private int pos;
+  private int limit;
+  /** Where in buf the token being lexed begins; kept across refills. */
+  private int tokenStart;
+  private boolean eof;
+
+  /**
+   * The current line, and for it and the line before it the offset and column
+   * that columns are counted on from: the start of the line, or just after its
+   * last tab.
+   */
+  private int line = 1;
+  private long anchor;
+  private int anchorColumn = 1;
+  private long prevAnchor;
+  private int prevAnchorColumn = 1;
+  /** Offset of the most recent carriage return. */
+  private long crOffset = -2;
+
+  private TokenMgrError error;
+  private TokenBuffer single;
+
+  /** Constructor. */
+  public ScriptLexer(java.io.Reader stream)
+  {
+    this(stream, 1 << 16);
+  }
+
+  /** Constructor, with the initial size of the character buffer. */
+  public ScriptLexer(java.io.Reader stream, int buffersize)
+  {
+    super(null);
+    if (buffersize < 16)
+      throw new IllegalArgumentException("buffersize must be at least 16");
+    in = stream;
+    buf = new char[buffersize];
+  }
+
+  /** Get the next Token. */
+  public Token getNextToken()
+  {
+    if (single == null)
+      single = new TokenBuffer(1);
+    single.clear();
+    fill(single, 1);
+    if (single.size() == 0)
+      throw single.getError();
+    Token t = Token.newToken(single.getKind(0), single.getImage(0));
+    t.beginLine = t.endLine = single.getBeginLine(0);
+    t.beginColumn = single.getBeginColumn(0);
+    t.endColumn = t.kind == EOF ? t.beginColumn : endColumn(t.beginColumn, t.image);
+    return t;
+  }
+
+  /** The column of the last character of an image on one line, expanding tabs. */
+  private static int endColumn(int beginColumn, String image)
+  {
+    int column = beginColumn;
+    for (int i = 1; i < image.length(); i++)
+      column = image.charAt(i) == '\t' ? column + (TAB_SIZE - (column % TAB_SIZE)) : column + 1;
+    return column;
+  }
+
+  /**
+   * Lexes tokens into a buffer, as {@link ParserTokenManager#fill} does.
+   *
+   * @return the number of tokens appended
+   */
+  public int fill(TokenBuffer buffer, int max)
+  {
+    if (error != null)
+    {
+      buffer.setError(error);
+      return 0;
+    }
+    int i = 0;
+    while (i < max)
+    {
+      int kind = scan(buffer);
+      if (kind < 0)
+      {
+        buffer.setError(error);
+        break;
+      }
+      i++;
+      if (kind == EOF)
+        break;
+    }
+    return i;
+  }
+
+  /** Lex one token into the buffer and return its kind, or -1 on an error. */
+  private int scan(TokenBuffer tokens)
+  {
+    for (;;)
+    {
+      if (pos == limit && !refill())
+        return end(tokens);
+      tokenStart = pos;
+      char c = buf[pos];
+      switch (c)
+      {
+        case '\t':
+          tab(pos);
+          pos++;
+          break;
+        case ' ':
+        case '\f':
+          pos++;
+          break;
+        case '\n':
+        case '\r':
+          lineBreak(c);
+          pos++;
+          break;
+        case '/':
+          // a comment may span lines, so its start is placed beforehand
+          int commentLine = line;
+          int commentColumn = column(tokenStart);
+          if (!comment())
+            return fail(commentLine, commentColumn);
+          break;
+        case '(':
+          return punctuation(tokens, LPAREN);
+        case ')':
+          return punctuation(tokens, RPAREN);
+        case ',':
+          return punctuation(tokens, COMMA);
+        case ';':
+          return punctuation(tokens, SEMICOLON);
+        case '[':
+          return punctuation(tokens, 27);
+        case ']':
+          return punctuation(tokens, 28);
+        case '"':
+          return string(tokens);
+        case '-':
+        case '0': case '1': case '2': case '3': case '4':
+        case '5': case '6': case '7': case '8': case '9':
+          return integer(tokens);
+        case 'c':
+          if (!ensure(3))
+            return fail();
+          if (buf[pos + 2] == 'i')
+            return keyword(tokens, COIN_LOAD, COIN_LOAD_CHARS);
+          if (buf[pos + 2] == 'n' && ensure(4) && buf[pos + 3] == 'f')
+            return keyword(tokens, CONFIGURE, CONFIGURE_CHARS);
+          return keyword(tokens, CONSTRUCT, CONSTRUCT_CHARS);
+        case 'e':
+          return keyword(tokens, EXTRACT, EXTRACT_CHARS);
+        case 'p':
+          if (ensure(2) && buf[pos + 1] == 'o')
+            return keyword(tokens, POP_LOAD, POP_LOAD_CHARS);
+          return keyword(tokens, PRESS, PRESS_CHARS);
+        case 'i':
+          return keyword(tokens, INSERT, INSERT_CHARS);
+        case 'u':
+          return keyword(tokens, UNLOAD, UNLOAD_CHARS);
+        case 'C':
+          if (ensure(7) && buf[pos + 6] == 'T')
+            return keyword(tokens, CHECK_TEARDOWN, CHECK_TEARDOWN_CHARS);
+          return keyword(tokens, CHECK_DELIVERY, CHECK_DELIVERY_CHARS);
+        default:
+          return fail();
+      }
+    }
+  }
+
+  private int punctuation(TokenBuffer tokens, int kind)
+  {
+    pos++;
+    tokens.append(kind, line, column(tokenStart), 0);
+    return kind;
+  }
+
+  private int keyword(TokenBuffer tokens, int kind, char[] word)
+  {
+    if (!ensure(word.length))
+      return fail();
+    for (int i = 1; i < word.length; i++)
+      if (buf[pos + i] != word[i])
+        return fail();
+    pos += word.length;
+    tokens.append(kind, line, column(tokenStart), 0);
+    return kind;
+  }
+
+  private int integer(TokenBuffer tokens)
+  {
+    char c = buf[pos++];
+    if (c == '-')
+    {
+      if (pos == limit && !refill())
+        return fail();
+      c = buf[pos++];
+      if (c < '1' || c > '9')
+        return fail();
+    }
+    if (c != '0')
+    {
+      while ((pos < limit || refill()) && buf[pos] >= '0' && buf[pos] <= '9')
+        pos++;
+    }
+    return literal(tokens, INTEGER_LITERAL, column(tokenStart));
+  }
+
+  private int string(TokenBuffer tokens)
+  {
+    // placed before tabs in the string move the anchor, and used for
+    // failing too
+    int column = column(tokenStart);
+    pos++;
+    for (;;)
+    {
+      if (pos == limit && !refill())
+        return fail(line, column);
+      char c = buf[pos];
+      if (c == '"')
+      {
+        pos++;
+        return literal(tokens, STRING_LITERAL, column);
+      }
+      if (c == '\n' || c == '\r')
+        return fail(line, column);
+      if (c == '\\')
+      {
+        if (!ensure(2))
+          return fail(line, column);
+        switch (buf[pos + 1])
+        {
+          case 'n': case 't': case 'b': case 'r': case 'f':
+          case '\\': case '\'': case '"':
+          case '0': case '1': case '2': case '3':
+          case '4': case '5': case '6': case '7':
+            pos += 2;
+            break;
+          default:
+            return fail(line, column);
+        }
+      }
+      else
+      {
+        if (c == '\t')
+          tab(pos);
+        pos++;
+      }
+    }
+  }
+
+  /** Append the token from tokenStart to pos, with its text. */
+  private int literal(TokenBuffer tokens, int kind, int column)
+  {
+    int length = pos - tokenStart;
+    char[] text = tokens.reserve(length);
+    System.arraycopy(buf, tokenStart, text, tokens.getTextSize(), length);
+    tokens.append(kind, line, column, length);
+    return kind;
+  }
+
+  /** Skip a comment starting at pos, or return false if there is none. */
+  private boolean comment()
+  {
+    if (!ensure(2))
+      return false;
+    char c = buf[pos + 1];
+    if (c == '/')
+    {
+      // the line break ending the comment is left to be skipped on its own
+      pos += 2;
+      while ((pos < limit || refill()) && buf[pos] != '\n' && buf[pos] != '\r')
+      {
+        if (buf[pos] == '\t')
+          tab(pos);
+        pos++;
+      }
+      return true;
+    }
+    if (c != '*')
+      return false;
+    pos += 2;
+    for (;;)
+    {
+      if (pos == limit && !refill())
+        return false;
+      c = buf[pos];
+      if (c == '*')
+      {
+        if (!ensure(2))
+          return false;
+        if (buf[pos + 1] == '/')
+        {
+          pos += 2;
+          return true;
+        }
+      }
+      else if (c == '\n' || c == '\r')
+        lineBreak(c);
+      else if (c == '\t')
+        tab(pos);
+      pos++;
+    }
+  }
+
+  /** Note the line break at pos. */
+  private void lineBreak(char c)
+  {
+    long at = base + pos;
+    if (c == '\n' && crOffset == at - 1)
+    {
+      anchor = at + 1;
+      return;
+    }
+    if (c == '\r')
+      crOffset = at;
+    line++;
+    prevAnchor = anchor;
+    prevAnchorColumn = anchorColumn;
+    anchor = at + 1;
+    anchorColumn = 1;
+  }
+
+  /** Note the tab at index, expanding it as SimpleCharStream does. */
+  private void tab(int index)
+  {
+    int before = column(index) - 1;
+    anchor = base + index + 1;
+    anchorColumn = before + (TAB_SIZE - (before % TAB_SIZE)) + 1;
+  }
+
+  private int column(int index)
+  {
+    return anchorColumn + (int)(base + index - anchor);
+  }
+
+  /** Append the EOF token, placed like the generated one at the last character. */
+  private int end(TokenBuffer tokens)
+  {
+    long last = base + limit - 1;
+    if (last < 0)
+      // with no last character, the generated one reports 0:0
+      tokens.append(EOF, 0, 0, 0);
+    else if (buf[limit - 1] == '\n' || buf[limit - 1] == '\r')
+      tokens.append(EOF, line - 1, prevAnchorColumn + (int)(last - prevAnchor), 0);
+    else
+      tokens.append(EOF, line, anchorColumn + (int)(last - anchor), 0);
+    return EOF;
+  }
+
+  private int fail()
+  {
+    return fail(line, column(tokenStart));
+  }
+
+  /**
+   * Lex from the start of the failing token, which is at the given line and
+   * column, with the generated token manager, keep the error it raises, and
+   * return -1.
+   */
+  private int fail(int startline, int startcolumn)
+  {
+    final int from = tokenStart;
+    java.io.Reader rest = new java.io.Reader()
+    {
+      private int next = from;
+
+      public int read(char[] cbuf, int off, int len) throws java.io.IOException
+      {
+        if (next < limit)
+        {
+          int n = Math.min(len, limit - next);
+          System.arraycopy(buf, next, cbuf, off, n);
+          next += n;
+          return n;
+        }
+        return eof ? -1 : in.read(cbuf, off, len);
+      }
+
+      public void close() throws java.io.IOException
+      {
+        in.close();
+      }
+    };
+    ParserTokenManager generated = new ParserTokenManager(new SimpleCharStream(rest, startline, startcolumn, 4096, false));
+    try
+    {
+      Token t = generated.getNextToken();
+      throw new IllegalStateException("the generated token manager accepted " + t.image + " at line " + t.beginLine + ", column " + t.beginColumn);
+    }
+    catch (TokenMgrError e)
+    {
+      error = e;
+    }
+    return -1;
+  }
+
+  /** Make sure n characters from pos are buffered, and return false if the input ends first. */
+  private boolean ensure(int n)
+  {
+    while (limit - pos < n)
+      if (!refill())
+        return false;
+    return true;
+  }
+
+  /**
+   * Read more of the input, first moving the token being lexed to the front
+   * of the buffer, or growing the buffer if the token fills it.
+   *
+   * @return false if the input has ended
+   */
+  private boolean refill()
+  {
+    if (eof)
+      return false;
+    if (limit == buf.length)
+    {
+      // the last character is kept too, for placing the EOF token
+      int from = Math.min(tokenStart, limit - 1);
+      if (from == 0)
+        buf = java.util.Arrays.copyOf(buf, buf.length * 2);
+      else
+      {
+        System.arraycopy(buf, from, buf, 0, limit - from);
+        base += from;
+        pos -= from;
+        limit -= from;
+        tokenStart -= from;
+      }
+    }
+    try
+    {
+      int n = in.read(buf, limit, buf.length - limit);
+      if (n != -1)
+      {
+        limit += n;
+        return true;
+      }
+      in.close();
+    }
+    catch (java.io.IOException e)
+    {
+      // like SimpleCharStream, take a failed read as the end of the input
+    }
+    eof = true;
+    return false;
+  }
+}
@@ -5,6 +5,11 @@ package org.lsmr.vending.frontend1.parser;
 /**
  * An implementation of interface CharStream, where the stream is assumed to
  * contain only ASCII characters (without unicode processing).
+ *
+ * Unless constructed with trackPositions set to false, the stream keeps the
+ * line and column of every buffered character. Without tracking, it keeps
+ * only where the most recent lines and tabs start, and works positions out
+ * from those when they are asked for.
  */
 
 @SuppressWarnings("all")
@@ -36,12 +41,63 @@ public class SimpleCharStream
   protected void setTabSize(int i) { tabSize = i; }
   protected int getTabSize(int i) { return tabSize; }
 
+/** Whether the line and column of every buffered character are kept. */
+  protected boolean trackPositions = true;
+/** Number of characters read from the input so far. */
+  protected long offset;
+/** Offset of the first character of the current token. */
+  protected long tokenBeginOffset;
+/** Offsets where the most recent lines start, as a ring, and the number of lines started. */
+  protected long[] lineStarts;
+  protected long lineCount;
+/** Offsets and columns of the most recent tabs, as a ring, and the number of tabs read. */
+  protected long[] tabOffsets;
+  protected int[] tabColumns;
+  protected long tabCount;
+  protected int startLine;
+  protected int startColumn;
+
+  private void allocate(int buffersize)
+  {
+    available = bufsize = buffersize;
+    buffer = new char[buffersize];
+    if (trackPositions)
+    {
+      bufline = new int[buffersize];
+      bufcolumn = new int[buffersize];
+    }
+  }
+
+  private void startPositions(int startline, int startcolumn)
+  {
+    line = startline;
+    column = startcolumn - 1;
+    if (!trackPositions)
+    {
+      startLine = startline;
+      startColumn = startcolumn;
+      offset = tokenBeginOffset = 0;
+      if (lineStarts == null)
+        lineStarts = new long[256];
+      lineStarts[0] = 0;
+      lineCount = 1;
+      if (tabOffsets == null)
+      {
+        tabOffsets = new long[16];
+        tabColumns = new int[16];
+      }
+      tabCount = 0;
+    }
+  }
+
 
   protected void ExpandBuff(boolean wrapAround)
   {
-    char[] newbuffer = new char[bufsize + 2048];
-    int newbufline[] = new int[bufsize + 2048];
-    int newbufcolumn[] = new int[bufsize + 2048];
+    // grow geometrically, so that long tokens are copied a bounded number of times
+    int newsize = bufsize * 2;
+    char[] newbuffer = new char[newsize];
+    int newbufline[] = trackPositions ? new int[newsize] : null;
+    int newbufcolumn[] = trackPositions ? new int[newsize] : null;
 
     try
     {
@@ -51,13 +107,16 @@ public class SimpleCharStream
         System.arraycopy(buffer, 0, newbuffer, bufsize - tokenBegin, bufpos);
         buffer = newbuffer;
 
-        System.arraycopy(bufline, tokenBegin, newbufline, 0, bufsize - tokenBegin);
-        System.arraycopy(bufline, 0, newbufline, bufsize - tokenBegin, bufpos);
-        bufline = newbufline;
+        if (trackPositions)
+        {
+          System.arraycopy(bufline, tokenBegin, newbufline, 0, bufsize - tokenBegin);
+          System.arraycopy(bufline, 0, newbufline, bufsize - tokenBegin, bufpos);
+          bufline = newbufline;
 
-        System.arraycopy(bufcolumn, tokenBegin, newbufcolumn, 0, bufsize - tokenBegin);
-        System.arraycopy(bufcolumn, 0, newbufcolumn, bufsize - tokenBegin, bufpos);
-        bufcolumn = newbufcolumn;
+          System.arraycopy(bufcolumn, tokenBegin, newbufcolumn, 0, bufsize - tokenBegin);
+          System.arraycopy(bufcolumn, 0, newbufcolumn, bufsize - tokenBegin, bufpos);
+          bufcolumn = newbufcolumn;
+        }
 
         maxNextCharInd = (bufpos += (bufsize - tokenBegin));
       }
@@ -66,11 +125,14 @@ public class SimpleCharStream
         System.arraycopy(buffer, tokenBegin, newbuffer, 0, bufsize - tokenBegin);
         buffer = newbuffer;
 
-        System.arraycopy(bufline, tokenBegin, newbufline, 0, bufsize - tokenBegin);
-        bufline = newbufline;
+        if (trackPositions)
+        {
+          System.arraycopy(bufline, tokenBegin, newbufline, 0, bufsize - tokenBegin);
+          bufline = newbufline;
 
-        System.arraycopy(bufcolumn, tokenBegin, newbufcolumn, 0, bufsize - tokenBegin);
-        bufcolumn = newbufcolumn;
+          System.arraycopy(bufcolumn, tokenBegin, newbufcolumn, 0, bufsize - tokenBegin);
+          bufcolumn = newbufcolumn;
+        }
 
         maxNextCharInd = (bufpos -= tokenBegin);
       }
@@ -81,7 +143,7 @@ public class SimpleCharStream
     }
 
 
-    bufsize += 2048;
+    bufsize = newsize;
     available = bufsize;
     tokenBegin = 0;
   }
@@ -125,7 +187,10 @@ public class SimpleCharStream
       --bufpos;
       backup(0);
       if (tokenBegin == -1)
+      {
         tokenBegin = bufpos;
+        tokenBeginOffset = offset - 1 - inBuf;
+      }
       throw e;
     }
   }
@@ -136,6 +201,8 @@ public class SimpleCharStream
     tokenBegin = -1;
     char c = readChar();
     tokenBegin = bufpos;
+    if (!trackPositions)
+      tokenBeginOffset = offset - 1 - inBuf;
 
     return c;
   }
@@ -180,6 +247,104 @@ public class SimpleCharStream
     bufcolumn[bufpos] = column;
   }
 
+  /**
+   * Notes where lines start, in place of UpdateLineColumn when positions
+   * are not tracked.
+   */
+  protected void UpdateLineStarts(char c)
+  {
+    if (prevCharIsLF)
+    {
+      prevCharIsLF = false;
+      newLine(offset);
+    }
+    else if (prevCharIsCR)
+    {
+      prevCharIsCR = false;
+      if (c == '\n')
+        prevCharIsLF = true;
+      else
+        newLine(offset);
+    }
+
+    if (c == '\r')
+      prevCharIsCR = true;
+    else if (c == '\n')
+      prevCharIsLF = true;
+    else if (c == '\t')
+      newTab(offset);
+    offset++;
+  }
+
+  private void newLine(long start)
+  {
+    int size = lineStarts.length;
+    // keep every line of the current token, which may span many
+    if (lineCount >= size && lineStarts[(int)((lineCount - size + 1) % size)] > tokenBeginOffset)
+    {
+      long[] grown = new long[size * 2];
+      for (long k = lineCount - size; k < lineCount; k++)
+        grown[(int)(k % grown.length)] = lineStarts[(int)(k % size)];
+      lineStarts = grown;
+      size = grown.length;
+    }
+    lineStarts[(int)(lineCount % size)] = start;
+    lineCount++;
+  }
+
+  private void newTab(long at)
+  {
+    // expanded as UpdateLineColumn does, from the column before the tab
+    int before = columnOf(at) - 1;
+    int size = tabOffsets.length;
+    // keep the last tab before the current token and every tab in it
+    if (tabCount >= size && tabOffsets[(int)((tabCount - size + 1) % size)] > tokenBeginOffset)
+    {
+      long[] grownOffsets = new long[size * 2];
+      int[] grownColumns = new int[size * 2];
+      for (long k = tabCount - size; k < tabCount; k++)
+      {
+        grownOffsets[(int)(k % grownOffsets.length)] = tabOffsets[(int)(k % size)];
+        grownColumns[(int)(k % grownColumns.length)] = tabColumns[(int)(k % size)];
+      }
+      tabOffsets = grownOffsets;
+      tabColumns = grownColumns;
+      size = grownOffsets.length;
+    }
+    tabOffsets[(int)(tabCount % size)] = at;
+    tabColumns[(int)(tabCount % size)] = before + (tabSize - (before % tabSize));
+    tabCount++;
+  }
+
+  /** The index, counted from the first line, of the line holding a character. */
+  private long lineIndexOf(long characterOffset)
+  {
+    int size = lineStarts.length;
+    long k = lineCount - 1;
+    while (k > 0 && k > lineCount - size && lineStarts[(int)(k % size)] > characterOffset)
+      k--;
+    return k;
+  }
+
+  private int lineOf(long characterOffset)
+  {
+    return startLine + (int)lineIndexOf(characterOffset);
+  }
+
+  private int columnOf(long characterOffset)
+  {
+    long k = lineIndexOf(characterOffset);
+    long start = lineStarts[(int)(k % lineStarts.length)];
+    // count on from the last tab at or before the character, if it is on the same line
+    int size = tabOffsets.length;
+    long t = tabCount - 1;
+    while (t >= 0 && t >= tabCount - size && tabOffsets[(int)(t % size)] > characterOffset)
+      t--;
+    if (t >= 0 && t >= tabCount - size && tabOffsets[(int)(t % size)] >= start)
+      return tabColumns[(int)(t % size)] + (int)(characterOffset - tabOffsets[(int)(t % size)]);
+    return (int)(characterOffset - start) + (k == 0 ? startColumn : 1);
+  }
+
 /** Read a character. */
   public char readChar() throws java.io.IOException
   {
@@ -198,7 +363,10 @@ public class SimpleCharStream
 
     char c = buffer[bufpos];
 
-    UpdateLineColumn(c);
+    if (trackPositions)
+      UpdateLineColumn(c);
+    else
+      UpdateLineStarts(c);
     return c;
   }
 
@@ -209,7 +377,7 @@ public class SimpleCharStream
    */
 
   public int getColumn() {
-    return bufcolumn[bufpos];
+    return getEndColumn();
   }
 
   @Deprecated
@@ -219,27 +387,27 @@ public class SimpleCharStream
    */
 
   public int getLine() {
-    return bufline[bufpos];
+    return getEndLine();
   }
 
   /** Get token end column number. */
   public int getEndColumn() {
-    return bufcolumn[bufpos];
+    return trackPositions ? bufcolumn[bufpos] : columnOf(offset - 1 - inBuf);
   }
 
   /** Get token end line number. */
   public int getEndLine() {
-     return bufline[bufpos];
+     return trackPositions ? bufline[bufpos] : lineOf(offset - 1 - inBuf);
   }
 
   /** Get token beginning column number. */
   public int getBeginColumn() {
-    return bufcolumn[tokenBegin];
+    return trackPositions ? bufcolumn[tokenBegin] : columnOf(tokenBeginOffset);
   }
 
   /** Get token beginning line number. */
   public int getBeginLine() {
-    return bufline[tokenBegin];
+    return trackPositions ? bufline[tokenBegin] : lineOf(tokenBeginOffset);
   }
 
 /** Backup a number of characters. */
@@ -253,15 +421,19 @@ public class SimpleCharStream
   /** Constructor. */
   public SimpleCharStream(java.io.Reader dstream, int startline,
   int startcolumn, int buffersize)
+  {
+    this(dstream, startline, startcolumn, buffersize, true);
+  }
+
+  /** Constructor, optionally without keeping the position of every character. */
+  public SimpleCharStream(java.io.Reader dstream, int startline,
+  int startcolumn, int buffersize, boolean trackPositions)
   {
     inputStream = dstream;
-    line = startline;
-    column = startcolumn - 1;
+    this.trackPositions = trackPositions;
+    startPositions(startline, startcolumn);
 
-    available = bufsize = buffersize;
-    buffer = new char[buffersize];
-    bufline = new int[buffersize];
-    bufcolumn = new int[buffersize];
+    allocate(buffersize);
   }
 
   /** Constructor. */
@@ -282,16 +454,10 @@ public class SimpleCharStream
   int startcolumn, int buffersize)
   {
     inputStream = dstream;
-    line = startline;
-    column = startcolumn - 1;
+    startPositions(startline, startcolumn);
 
     if (buffer == null || buffersize != buffer.length)
-    {
-      available = bufsize = buffersize;
-      buffer = new char[buffersize];
-      bufline = new int[buffersize];
-      bufcolumn = new int[buffersize];
-    }
+      allocate(buffersize);
     prevCharIsLF = prevCharIsCR = false;
     tokenBegin = inBuf = maxNextCharInd = 0;
     bufpos = -1;
@@ -396,6 +562,27 @@ public class SimpleCharStream
                             new String(buffer, 0, bufpos + 1);
   }
 
+  /** Get the length of the token literal value. */
+  public int GetImageLength()
+  {
+    if (bufpos >= tokenBegin)
+      return bufpos - tokenBegin + 1;
+    else
+      return bufsize - tokenBegin + bufpos + 1;
+  }
+
+  /** Copy the token literal value into an array, without creating a String. */
+  public void GetImageChars(char[] dest, int destPos)
+  {
+    if (bufpos >= tokenBegin)
+      System.arraycopy(buffer, tokenBegin, dest, destPos, bufpos - tokenBegin + 1);
+    else
+    {
+      System.arraycopy(buffer, tokenBegin, dest, destPos, bufsize - tokenBegin);
+      System.arraycopy(buffer, 0, dest, destPos + bufsize - tokenBegin, bufpos + 1);
+    }
+  }
+
   /** Get the suffix. */
   public char[] GetSuffix(int len)
   {
@@ -426,6 +613,8 @@ public class SimpleCharStream
    */
   public void adjustBeginLineColumn(int newLine, int newCol)
   {
+    if (!trackPositions)
+      throw new IllegalStateException("positions are not tracked");
     int start = tokenBegin;
     int len;
 
@@ -0,0 +1,222 @@
+package org.lsmr.vending.frontend1.parser;
+
+/**
+ * A reusable batch of tokens, filled by
+ * {@link ParserTokenManager#fill(TokenBuffer, int)}. Each token is kept as its
+ * kind and the position where it begins; the text of a literal is kept as an
+ * offset and length within one character array shared by the batch. Once the
+ * arrays have grown to the size of a batch, refilling the buffer allocates
+ * nothing.
+ *
+ * Integer literals are decoded straight from their characters. String
+ * literals only become Strings when asked for, through a small cache that
+ * hands back the same String for the same text.
+ */
+public class TokenBuffer
+{
+  private static final int CACHE_SIZE = 256;
+
+  private int[] kinds;
+  private int[] lines;
+  private int[] columns;
+  private int[] offsets;
+  private int[] lengths;
+  private int size;
+
+  private char[] text;
+  private int textSize;
+
+  private String[] strings;
+  private TokenMgrError error;
+
+  /** Constructor. */
+  public TokenBuffer()
+  {
+    this(256);
+  }
+
+  /** Constructor, with room for the given number of tokens before growing. */
+  public TokenBuffer(int capacity)
+  {
+    if (capacity < 1)
+      throw new IllegalArgumentException("capacity must be positive");
+    kinds = new int[capacity];
+    lines = new int[capacity];
+    columns = new int[capacity];
+    offsets = new int[capacity];
+    lengths = new int[capacity];
+    text = new char[capacity * 8];
+    strings = new String[CACHE_SIZE];
+  }
+
+  /** Remove every token, keeping the capacity and the string cache. */
+  public void clear()
+  {
+    size = 0;
+    textSize = 0;
+    error = null;
+  }
+
+  /**
+   * Remove the first count tokens, moving the rest, and their text, to the
+   * front. A lexical error that ended the batch is kept.
+   */
+  public void discard(int count)
+  {
+    if (count < 0 || count > size)
+      throw new IndexOutOfBoundsException("cannot discard " + count + " of " + size + " tokens");
+    int keep = size - count;
+    int from = keep == 0 ? textSize : offsets[count];
+    System.arraycopy(kinds, count, kinds, 0, keep);
+    System.arraycopy(lines, count, lines, 0, keep);
+    System.arraycopy(columns, count, columns, 0, keep);
+    System.arraycopy(offsets, count, offsets, 0, keep);
+    System.arraycopy(lengths, count, lengths, 0, keep);
+    System.arraycopy(text, from, text, 0, textSize - from);
+    for (int i = 0; i < keep; i++)
+      offsets[i] -= from;
+    size = keep;
+    textSize -= from;
+  }
+
+  /** Append a token, copying its text out of the stream if one is given. */
+  void add(int kind, int line, int column, SimpleCharStream image)
+  {
+    int length = 0;
+    if (image != null)
+    {
+      length = image.GetImageLength();
+      reserve(length);
+      image.GetImageChars(text, textSize);
+    }
+    append(kind, line, column, length);
+  }
+
+  /** Append a token whose text, if any, has been written with reserve. */
+  void append(int kind, int line, int column, int length)
+  {
+    if (size == kinds.length)
+    {
+      int capacity = size * 2;
+      kinds = java.util.Arrays.copyOf(kinds, capacity);
+      lines = java.util.Arrays.copyOf(lines, capacity);
+      columns = java.util.Arrays.copyOf(columns, capacity);
+      offsets = java.util.Arrays.copyOf(offsets, capacity);
+      lengths = java.util.Arrays.copyOf(lengths, capacity);
+    }
+    kinds[size] = kind;
+    lines[size] = line;
+    columns[size] = column;
+    offsets[size] = textSize;
+    lengths[size] = length;
+    textSize += length;
+    size++;
+  }
+
+  /** Make room for length more characters of text, and return where they go. */
+  char[] reserve(int length)
+  {
+    if (textSize + length > text.length)
+      text = java.util.Arrays.copyOf(text, Math.max(text.length * 2, textSize + length));
+    return text;
+  }
+
+  /** The offset at which the text of the next token goes. */
+  int getTextSize()
+  {
+    return textSize;
+  }
+
+  void setError(TokenMgrError error)
+  {
+    this.error = error;
+  }
+
+  /** The lexical error that ended the batch, or null. */
+  public TokenMgrError getError()
+  {
+    return error;
+  }
+
+  /** The number of tokens in the batch. */
+  public int size()
+  {
+    return size;
+  }
+
+  public int getKind(int index)
+  {
+    return kinds[index];
+  }
+
+  public int getBeginLine(int index)
+  {
+    return lines[index];
+  }
+
+  public int getBeginColumn(int index)
+  {
+    return columns[index];
+  }
+
+  /** The value of an integer literal, as Integer.parseInt would give it. */
+  public int getInt(int index) throws NumberFormatException
+  {
+    return (int)decode(index, Integer.MIN_VALUE, Integer.MAX_VALUE);
+  }
+
+  /** The value of an integer literal, as Long.parseLong would give it. */
+  public long getLong(int index) throws NumberFormatException
+  {
+    return decode(index, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  private long decode(int index, long min, long max) throws NumberFormatException
+  {
+    int offset = offsets[index];
+    int end = offset + lengths[index];
+    boolean negative = text[offset] == '-';
+    // accumulate negatively, so that the most negative value fits
+    long limit = negative ? min : -max;
+    long multmin = limit / 10;
+    long ret = 0;
+    for (int i = negative ? offset + 1 : offset; i < end; i++)
+    {
+      int digit = text[i] - '0';
+      if (ret < multmin || ret * 10 < limit + digit)
+        throw new NumberFormatException("For input string: \"" + getImage(index) + "\"");
+      ret = ret * 10 - digit;
+    }
+    return negative ? ret : -ret;
+  }
+
+  /** The text of a string literal, quotes included, as Token.image would hold it. */
+  public String getString(int index)
+  {
+    int offset = offsets[index];
+    int length = lengths[index];
+    int hash = 0;
+    for (int i = offset; i < offset + length; i++)
+      hash = 31 * hash + text[i];
+    int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+    String cached = strings[slot];
+    if (cached != null && cached.length() == length)
+    {
+      int i = 0;
+      while (i < length && cached.charAt(i) == text[offset + i])
+        i++;
+      if (i == length)
+        return cached;
+    }
+    return strings[slot] = new String(text, offset, length);
+  }
+
+  /** The text of a token, as Token.image would hold it. */
+  public String getImage(int index)
+  {
+    if (lengths[index] > 0)
+      return new String(text, offsets[index], lengths[index]);
+    String im = ParserTokenManager.jjstrLiteralImages[kinds[index]];
+    return im == null ? "" : im;
+  }
+}
@@ -0,0 +1,21 @@
+package seng301.assn1;
+
+/**
+ * The coin banks held for every coin kind. The ordinal is used to address the
+ * bank inside the machine's bank table.
+ */
+public enum Bank {
+	/**
+	 * Coins loaded by a technician, used to give change
+	 */
+	CHANGE,
+	/**
+	 * Coins inserted by customers
+	 */
+	PAYMENT;
+
+	/**
+	 * The number of banks per coin kind
+	 */
+	public static final int COUNT = values().length;
+}
@@ -0,0 +1,77 @@
+package seng301.assn1;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns pop brand names as small integer ids, so racks and chutes can store
+ * pops as numbers. Ids are shared by every machine.
+ */
+public class Brands {
+	private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private static volatile String[] names = new String[16];
+	private static int count = 0;
+
+	private Brands() {
+	}
+
+	/**
+	 * @return the id of the named brand, assigning a new one on first use
+	 */
+	public static int intern(String name) throws IllegalArgumentException {
+		if (name == null) {
+			throw new IllegalArgumentException("arguments may not be null");
+		}
+		Integer id = ids.get(name);
+		if (id != null) {
+			return id;
+		}
+		synchronized (Brands.class) {
+			id = ids.get(name);
+			if (id == null) {
+				String[] cur = names;
+				if (count == cur.length) {
+					cur = Arrays.copyOf(cur, cur.length * 2);
+				}
+				cur[count] = name;
+				// publish the name before the id can be seen
+				names = cur;
+				id = count++;
+				ids.put(name, id);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * Looks a brand up without interning it, so that asking about brands
+	 * never seen does not grow the table
+	 * 
+	 * @return the id of the named brand, or -1 if it has none
+	 */
+	public static int lookup(String name) throws IllegalArgumentException {
+		if (name == null) {
+			throw new IllegalArgumentException("arguments may not be null");
+		}
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return the name of the brand with the given id
+	 */
+	public static String getName(int id) throws IndexOutOfBoundsException {
+		String[] cur = names;
+		if (id < 0 || id > cur.length - 1 || cur[id] == null) {
+			throw new IndexOutOfBoundsException("unknown brand id: " + id);
+		}
+		return cur[id];
+	}
+
+	/**
+	 * @return the number of brands interned so far
+	 */
+	public static int getCount() {
+		return ids.size();
+	}
+}
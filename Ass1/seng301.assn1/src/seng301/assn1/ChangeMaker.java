@@ -0,0 +1,24 @@
+package seng301.assn1;
+
+/**
+ * Strategy used by a vending machine to decide which coins to hand out as
+ * change. Coins are counted at the value of the coin kind they are stored
+ * under, whatever coins were actually loaded there.
+ */
+public interface ChangeMaker {
+	/**
+	 * Chooses the coins to return as change.
+	 * 
+	 * @param due
+	 *            The amount of change owed.
+	 * @param available
+	 *            The number of coins in the change bank of each coin kind,
+	 *            indexed by coin kind.
+	 * @param dispense
+	 *            Receives the number of coins to take from each coin kind,
+	 *            indexed by coin kind.
+	 * @return The value of the chosen coins. Never more than due; less if the
+	 *         exact amount cannot be made.
+	 */
+	public long makeChange(long due, long[] available, long[] dispense);
+}
@@ -0,0 +1,79 @@
+package seng301.assn1;
+
+import java.util.Arrays;
+
+/**
+ * Totals of what was taken out of a delivery chute: the value and number of
+ * coins, and the number of pops of each brand. Can be cleared and reused.
+ */
+public class ChuteSummary {
+	private long coinValue;
+	private long coinCount;
+	private long popCount;
+	private long[] popCounts;
+
+	/**
+	 * Basic Constructor
+	 */
+	public ChuteSummary() {
+		popCounts = new long[16];
+	}
+
+	/**
+	 * Adds every coin in the queue to the totals
+	 */
+	public void addCoins(RunQueue coins) {
+		coinValue += coins.getTotal();
+		coinCount += coins.size();
+	}
+
+	/**
+	 * Adds every pop in the queue, held as brand ids, to the totals
+	 */
+	public void addPops(RunQueue pops) {
+		for (int i = 0; i < pops.getRunCount(); i++) {
+			int brand = pops.getRunItem(i);
+			if (brand >= popCounts.length) {
+				popCounts = Arrays.copyOf(popCounts, Math.max(popCounts.length * 2, brand + 1));
+			}
+			popCounts[brand] += pops.getRunLength(i);
+		}
+		popCount += pops.size();
+	}
+
+	public void clear() {
+		coinValue = 0;
+		coinCount = 0;
+		popCount = 0;
+		Arrays.fill(popCounts, 0);
+	}
+
+	public long getCoinValue() {
+		return coinValue;
+	}
+
+	public long getCoinCount() {
+		return coinCount;
+	}
+
+	/**
+	 * @return the number of pops of every brand
+	 */
+	public long getPopCount() {
+		return popCount;
+	}
+
+	/**
+	 * @return the number of pops of the brand with the given id
+	 */
+	public long getPopCount(int brand) {
+		return brand < 0 || brand > popCounts.length - 1 ? 0 : popCounts[brand];
+	}
+
+	/**
+	 * @return the number of pops of the named brand
+	 */
+	public long getPopCount(String brand) {
+		return getPopCount(Brands.lookup(brand));
+	}
+}
@@ -0,0 +1,80 @@
+package seng301.assn1;
+
+import java.util.Arrays;
+
+/**
+ * Immutable map from coin value to coin kind index that works on primitives
+ * only. Small denominations are looked up directly in an array indexed by
+ * value; otherwise an open-addressing table with linear probing is used.
+ */
+public class CoinKindTable {
+	/**
+	 * Largest coin value for which a direct-indexed array is always used
+	 */
+	public static final int MAX_DIRECT_VALUE = 4096;
+
+	private int[] direct;
+	private int[] keys;
+	private int[] kinds;
+	private int mask;
+
+	/**
+	 * Basic Constructor
+	 * 
+	 * @param values
+	 *            the value of each coin kind, indexed by coin kind; values
+	 *            must be positive and unique
+	 */
+	public CoinKindTable(int[] values) {
+		int max = 0;
+		for (int value : values) {
+			max = Math.max(max, value);
+		}
+		if (max <= MAX_DIRECT_VALUE || max / 8 <= values.length) {
+			direct = new int[max + 1];
+			Arrays.fill(direct, -1);
+			for (int i = 0; i < values.length; i++) {
+				direct[values[i]] = i;
+			}
+		} else {
+			int capacity = Integer.highestOneBit(Math.max(values.length, 1) * 2 - 1) << 1;
+			keys = new int[capacity];
+			kinds = new int[capacity];
+			mask = capacity - 1;
+			for (int i = 0; i < values.length; i++) {
+				int slot = slot(values[i]);
+				while (keys[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = values[i];
+				kinds[slot] = i;
+			}
+		}
+	}
+
+	/**
+	 * @return the coin kind index with the given value, or -1 if no coin kind
+	 *         has that value
+	 */
+	public int indexOf(int value) {
+		if (direct != null) {
+			if (value < 0 || value >= direct.length) {
+				return -1;
+			}
+			return direct[value];
+		}
+		int slot = slot(value);
+		while (keys[slot] != 0) {
+			if (keys[slot] == value) {
+				return kinds[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private int slot(int value) {
+		int hash = value * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+}
@@ -0,0 +1,32 @@
+package seng301.assn1;
+
+import org.lsmr.vending.frontend1.Coin;
+
+/**
+ * A read-only list of coins backed by runs of coin values. Coin objects are
+ * only created when an element is actually requested.
+ */
+public class CoinList extends RunList<Coin> {
+	private long total;
+
+	/**
+	 * Copies the runs currently held by the queue; the queue itself is not
+	 * modified
+	 */
+	public CoinList(RunQueue queue) {
+		super(queue);
+		total = queue.getTotal();
+	}
+
+	@Override
+	protected Coin create(int item) {
+		return new Coin(item);
+	}
+
+	/**
+	 * @return the combined value of every coin in the list
+	 */
+	public long getTotal() {
+		return total;
+	}
+}
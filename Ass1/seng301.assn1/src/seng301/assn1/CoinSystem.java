@@ -0,0 +1,226 @@
+package seng301.assn1;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The analysed form of a list of coin kinds: the coin values in kind order,
+ * the kinds sorted by descending value, and whether greedy change making is
+ * optimal for them. Instances are cached, so every machine built with the same
+ * coin kinds shares a single one. The cache only holds them weakly, so a coin
+ * system no machine uses any more can be collected.
+ */
+public class CoinSystem {
+	/**
+	 * Largest table, in cells, built while deciding whether a coin system is
+	 * canonical. Bigger systems are treated as non-canonical.
+	 */
+	public static final long MAX_CANONICAL_CHECK_CELLS = 1L << 24;
+
+	private static final ConcurrentHashMap<CoinKinds, CacheEntry> cache = new ConcurrentHashMap<CoinKinds, CacheEntry>();
+	private static final ReferenceQueue<CoinSystem> collected = new ReferenceQueue<CoinSystem>();
+
+	private int[] values;
+	private int[] sortedKinds;
+	private CoinKindTable kindTable;
+	private boolean canonical;
+
+	/**
+	 * Returns the shared coin system for the given coin kinds, validating and
+	 * analysing it on first use. The array is kept by the coin system and must
+	 * not be modified afterwards.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if a coin kind is 0 or negative
+	 * @throws IllegalStateException
+	 *             if two coin kinds have the same value
+	 */
+	public static CoinSystem forKinds(int[] coinKinds) throws IllegalArgumentException, IllegalStateException {
+		for (Reference<? extends CoinSystem> cur; (cur = collected.poll()) != null;) {
+			cache.remove(((CacheEntry) cur).key, cur);
+		}
+		CoinKinds key = new CoinKinds(coinKinds);
+		CacheEntry entry = cache.get(key);
+		CoinSystem ret = entry == null ? null : entry.get();
+		if (ret == null) {
+			ret = new CoinSystem(coinKinds);
+			CacheEntry added = new CacheEntry(key, ret);
+			while (true) {
+				CacheEntry prev = cache.putIfAbsent(key, added);
+				if (prev == null) {
+					break;
+				}
+				CoinSystem shared = prev.get();
+				if (shared != null) {
+					ret = shared;
+					break;
+				}
+				// the cached system was collected; replace its entry
+				if (cache.replace(key, prev, added)) {
+					break;
+				}
+			}
+		}
+		return ret;
+	}
+
+	private CoinSystem(int[] coinKinds) throws IllegalArgumentException, IllegalStateException {
+		values = coinKinds;
+		// sort (value, index) pairs packed into longs; equal values end up
+		// next to each other and the kinds can be read back largest first
+		long[] order = new long[values.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = ((long) values[i] << 32) | i;
+		}
+		Arrays.sort(order);
+		int duplicate = values.length;
+		for (int i = 1; i < order.length; i++) {
+			if ((int) (order[i] >> 32) == (int) (order[i - 1] >> 32)) {
+				duplicate = Math.min(duplicate, (int) order[i - 1]);
+			}
+		}
+		int negative = values.length;
+		for (int i = 0; i < values.length && negative == values.length; i++) {
+			if (values[i] <= 0) {
+				negative = i;
+			}
+		}
+		// report whichever problem comes first in the caller's order, and the
+		// duplicate when both are the same coin kind
+		if (duplicate < values.length && duplicate <= negative) {
+			throw new IllegalStateException("Duplicate Coin Type: " + values[duplicate]);
+		}
+		if (negative < values.length) {
+			throw new IllegalArgumentException("A Coin Type cannot be 0 or negative: " + values[negative]);
+		}
+		sortedKinds = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			sortedKinds[i] = (int) order[order.length - 1 - i];
+		}
+		kindTable = new CoinKindTable(values);
+		canonical = checkCanonical();
+	}
+
+	/**
+	 * Compares greedy change against optimal change, with unlimited coins, for
+	 * every amount below the sum of the two largest coins; by Kozen and Zaks
+	 * any counterexample lies in that range.
+	 */
+	private boolean checkCanonical() {
+		if (values.length < 2) {
+			return true;
+		}
+		long bound = (long) values[sortedKinds[0]] + values[sortedKinds[1]];
+		if (bound * values.length > MAX_CANONICAL_CHECK_CELLS) {
+			return false;
+		}
+		int[] optimal = new int[(int) bound];
+		for (int amount = 1; amount < optimal.length; amount++) {
+			optimal[amount] = Integer.MAX_VALUE;
+			for (int value : values) {
+				if (value <= amount && optimal[amount - value] != Integer.MAX_VALUE
+						&& optimal[amount - value] + 1 < optimal[amount]) {
+					optimal[amount] = optimal[amount - value] + 1;
+				}
+			}
+			int greedy = 0;
+			int remaining = amount;
+			for (int kind : sortedKinds) {
+				greedy += remaining / values[kind];
+				remaining %= values[kind];
+			}
+			if (remaining != 0) {
+				greedy = Integer.MAX_VALUE;
+			}
+			if (greedy != optimal[amount]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of coin kinds
+	 */
+	public int getKindCount() {
+		return values.length;
+	}
+
+	/**
+	 * @return the value of the given coin kind
+	 */
+	public int getValue(int coinKindIndex) {
+		return values[coinKindIndex];
+	}
+
+	/**
+	 * @return the coin kind index with the given value, or -1 if no coin kind
+	 *         has that value
+	 */
+	public int indexOf(int value) {
+		return kindTable.indexOf(value);
+	}
+
+	/**
+	 * @return the coin kind indexes ordered by descending value; callers must
+	 *         not modify the array
+	 */
+	public int[] getSortedKinds() {
+		return sortedKinds;
+	}
+
+	/**
+	 * @return true if greedy change making is optimal for this coin system
+	 */
+	public boolean isCanonical() {
+		return canonical;
+	}
+
+	/**
+	 * Creates a change maker suited to this coin system. Change makers keep
+	 * working tables between purchases, so each machine gets its own.
+	 */
+	public ChangeMaker createChangeMaker() {
+		ChangeMaker optimal = new OptimalChangeMaker(this);
+		return canonical ? new GreedyChangeMaker(this, optimal) : optimal;
+	}
+
+	/**
+	 * Cache value remembering its key, so that it can be removed once its coin
+	 * system is collected
+	 */
+	private static class CacheEntry extends WeakReference<CoinSystem> {
+		private CoinKinds key;
+
+		public CacheEntry(CoinKinds key, CoinSystem coinSystem) {
+			super(coinSystem, collected);
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Cache key comparing coin kinds by content
+	 */
+	private static class CoinKinds {
+		private int[] values;
+		private int hash;
+
+		public CoinKinds(int[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof CoinKinds && Arrays.equals(values, ((CoinKinds) o).values);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package seng301.assn1;
+
+import java.util.Arrays;
+
+/**
+ * A reusable list of customer interactions (coin insertions, button presses
+ * and chute extractions) on one or more vending machines, to be carried out
+ * in order by {@link VendingMachineFactory#execute(CommandBuffer, CommandResults)}.
+ * Commands are held in parallel primitive arrays, so once the buffer has
+ * grown to its working size adding commands allocates nothing.
+ */
+public class CommandBuffer {
+	static final byte INSERT_COIN = 0;
+	static final byte PRESS_BUTTON = 1;
+	static final byte EXTRACT = 2;
+
+	private byte[] operations;
+	private int[] machines;
+	private int[] arguments;
+	private int size;
+
+	/**
+	 * Basic Constructor
+	 */
+	public CommandBuffer() {
+		this(16);
+	}
+
+	/**
+	 * Creates a buffer with room for the given number of commands before it
+	 * has to grow
+	 */
+	public CommandBuffer(int capacity) throws IllegalArgumentException {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		operations = new byte[capacity];
+		machines = new int[capacity];
+		arguments = new int[capacity];
+	}
+
+	private void add(byte operation, int vmIndex, int argument) {
+		if (size == operations.length) {
+			operations = Arrays.copyOf(operations, size * 2);
+			machines = Arrays.copyOf(machines, size * 2);
+			arguments = Arrays.copyOf(arguments, size * 2);
+		}
+		operations[size] = operation;
+		machines[size] = vmIndex;
+		arguments[size] = argument;
+		size++;
+	}
+
+	/**
+	 * Adds the insertion of a coin of the given value
+	 */
+	public void insertCoin(int vmIndex, int value) {
+		add(INSERT_COIN, vmIndex, value);
+	}
+
+	/**
+	 * Adds the press of a selection button
+	 */
+	public void pressButton(int vmIndex, int buttonIndex) {
+		add(PRESS_BUTTON, vmIndex, buttonIndex);
+	}
+
+	/**
+	 * Adds the removal of everything in the delivery chute
+	 */
+	public void extract(int vmIndex) {
+		add(EXTRACT, vmIndex, 0);
+	}
+
+	/**
+	 * Removes every command, keeping the buffer's capacity
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	byte getOperation(int index) {
+		return operations[index];
+	}
+
+	int getMachine(int index) {
+		return machines[index];
+	}
+
+	int getArgument(int index) {
+		return arguments[index];
+	}
+}
@@ -0,0 +1,86 @@
+package seng301.assn1;
+
+/**
+ * The outcome of every command in a {@link CommandBuffer}, filled in by
+ * {@link VendingMachineFactory#execute(CommandBuffer, CommandResults)}. The
+ * buffer is reused from one batch to the next and only grows when a batch is
+ * larger than any before it.
+ *
+ * <p>
+ * For a coin insertion the result is 1 if the coin was accepted as credit and
+ * 0 if it was sent to the delivery chute. For a button press it is 1 if a pop
+ * was delivered and 0 otherwise. For an extraction it is the value of the
+ * coins taken from the chute, and {@link #getPopCount(int)} gives the number
+ * of pops; every extraction of the batch is also added to
+ * {@link #getSummary()}.
+ */
+public class CommandResults {
+	private long[] results;
+	private long[] popCounts;
+	private int size;
+	private ChuteSummary summary;
+
+	/**
+	 * Basic Constructor
+	 */
+	public CommandResults() {
+		results = new long[16];
+		popCounts = new long[16];
+		summary = new ChuteSummary();
+	}
+
+	/**
+	 * Clears the results and makes room for a batch of the given size
+	 */
+	void reset(int size) {
+		if (size > results.length) {
+			int capacity = Math.max(size, results.length * 2);
+			results = new long[capacity];
+			popCounts = new long[capacity];
+		}
+		this.size = size;
+		summary.clear();
+	}
+
+	void set(int index, long result) {
+		results[index] = result;
+		popCounts[index] = 0;
+	}
+
+	void set(int index, long result, long popCount) {
+		results[index] = result;
+		popCounts[index] = popCount;
+	}
+
+	/**
+	 * @return the number of commands in the last batch
+	 */
+	public int size() {
+		return size;
+	}
+
+	public long getResult(int index) throws IndexOutOfBoundsException {
+		if (index < 0 || index > size - 1) {
+			throw new IndexOutOfBoundsException("no such command");
+		}
+		return results[index];
+	}
+
+	/**
+	 * @return the number of pops taken out by an extraction, or 0 for other
+	 *         commands
+	 */
+	public long getPopCount(int index) throws IndexOutOfBoundsException {
+		if (index < 0 || index > size - 1) {
+			throw new IndexOutOfBoundsException("no such command");
+		}
+		return popCounts[index];
+	}
+
+	/**
+	 * @return everything taken out of delivery chutes in the last batch
+	 */
+	public ChuteSummary getSummary() {
+		return summary;
+	}
+}
@@ -0,0 +1,84 @@
+package seng301.assn1;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads what a {@link CompactWriter} wrote
+ */
+class CompactReader {
+	private byte[] data;
+	private int position;
+
+	/**
+	 * Basic Constructor
+	 */
+	public CompactReader(byte[] data) {
+		this.data = data;
+	}
+
+	public long readLong() throws IllegalStateException {
+		long ret = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (position == data.length) {
+				throw new IllegalStateException("encoded data is truncated");
+			}
+			byte cur = data[position++];
+			ret |= (long) (cur & 0x7F) << shift;
+			if (cur >= 0) {
+				return ret;
+			}
+		}
+		throw new IllegalStateException("encoded data is corrupt");
+	}
+
+	public int readInt() throws IllegalStateException {
+		long ret = readLong();
+		if (ret > Integer.MAX_VALUE) {
+			throw new IllegalStateException("encoded data is corrupt");
+		}
+		return (int) ret;
+	}
+
+	public String readString() throws IllegalStateException {
+		int length = readInt();
+		if (length > data.length - position) {
+			throw new IllegalStateException("encoded data is truncated");
+		}
+		String ret = new String(data, position, length, StandardCharsets.UTF_8);
+		position += length;
+		return ret;
+	}
+
+	/**
+	 * Reads runs written by {@link CompactWriter#writeRuns(RunQueue)} into a
+	 * queue
+	 */
+	public void readRuns(RunQueue into) throws IllegalStateException {
+		readRuns(into, null);
+	}
+
+	/**
+	 * Reads runs as {@link #readRuns(RunQueue)} does, replacing each item by
+	 * the entry it indexes in items, unless items is null
+	 */
+	public void readRuns(RunQueue into, int[] items) throws IllegalStateException {
+		int runs = readInt();
+		for (int i = 0; i < runs; i++) {
+			int item = readInt();
+			if (items != null) {
+				if (item > items.length - 1) {
+					throw new IllegalStateException("encoded data is corrupt");
+				}
+				item = items[item];
+			}
+			into.add(item, readLong());
+		}
+	}
+
+	/**
+	 * @return true if everything has been read
+	 */
+	public boolean isAtEnd() {
+		return position == data.length;
+	}
+}
@@ -0,0 +1,81 @@
+package seng301.assn1;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes non-negative numbers as variable-length integers (seven bits per
+ * byte, low bits first) and strings as their length followed by their UTF-8
+ * bytes, into a growing byte array. Read back with {@link CompactReader}.
+ */
+class CompactWriter {
+	private byte[] data;
+	private int size;
+
+	/**
+	 * Basic Constructor
+	 */
+	public CompactWriter(int capacity) {
+		data = new byte[Math.max(capacity, 16)];
+	}
+
+	public void writeLong(long value) throws IllegalArgumentException {
+		if (value < 0) {
+			throw new IllegalArgumentException("only non-negative numbers can be written");
+		}
+		if (size + 10 > data.length) {
+			data = Arrays.copyOf(data, data.length * 2 + 10);
+		}
+		while (value >= 0x80) {
+			data[size++] = (byte) (value | 0x80);
+			value >>>= 7;
+		}
+		data[size++] = (byte) value;
+	}
+
+	public void writeString(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeLong(bytes.length);
+		if (size + bytes.length > data.length) {
+			data = Arrays.copyOf(data, Math.max(data.length * 2, size + bytes.length));
+		}
+		System.arraycopy(bytes, 0, data, size, bytes.length);
+		size += bytes.length;
+	}
+
+	/**
+	 * Writes the runs of a queue: their number, then each item and length
+	 */
+	public void writeRuns(RunQueue queue) {
+		writeLong(queue.getRunCount());
+		for (int i = 0; i < queue.getRunCount(); i++) {
+			writeLong(queue.getRunItem(i));
+			writeLong(queue.getRunLength(i));
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Forgets what was written, keeping the capacity
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Copies the bytes written so far into target, starting at offset
+	 */
+	public void copyTo(byte[] target, int offset) {
+		System.arraycopy(data, 0, target, offset, size);
+	}
+
+	/**
+	 * @return a copy of the bytes written so far
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(data, size);
+	}
+}
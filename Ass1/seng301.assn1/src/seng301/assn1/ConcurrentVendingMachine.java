@@ -0,0 +1,370 @@
+package seng301.assn1;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.lsmr.vending.frontend1.Coin;
+
+/**
+ * A vending machine that can be driven by several threads at once. It behaves
+ * like {@link VendingMachine}, but every pop rack, every coin bank and the
+ * delivery chute has its own lock, and the credit entered by customers is an
+ * atomic counter. A purchase only locks the rack of the button pressed, the
+ * credit, the change banks it may take coins from and the chute. Coins can be
+ * inserted while a purchase is under way, but purchases take turns spending
+ * the credit, since each one spends all of it and gives back change.
+ *
+ * <p>
+ * Locks are always taken in the order rack, credit, change banks (by
+ * ascending coin kind index), payment banks, chute, so operations cannot
+ * deadlock.
+ */
+public class ConcurrentVendingMachine {
+	private CoinSystem coinSystem;
+	private int selectionButtonCount;
+	private VendingMachine.VmButton[] buttons;
+	private RunQueue[] popRacks;
+	private ReentrantLock[] rackLocks;
+	private RunQueue[] coinBanks;
+	private ReentrantLock[] bankLocks;
+	private RunQueue deliveryChute_change;
+	private RunQueue deliveryChute_pop;
+	private ReentrantLock chuteLock;
+	private AtomicLong coinSlot;
+	private ReentrantLock creditLock;
+	private ThreadLocal<Scratch> scratch;
+
+	/**
+	 * Working state of a purchase, kept per thread so that concurrent
+	 * purchases do not share change tables
+	 */
+	private static class Scratch {
+		private ChangeMaker changeMaker;
+		private long[] available;
+		private long[] dispense;
+		private int[] locked;
+	}
+
+	/**
+	 * Basic Constructor
+	 */
+	public ConcurrentVendingMachine(List<Integer> coinTypes, int selectionButtonCount)
+			throws IllegalArgumentException, IllegalStateException {
+		int[] coinKinds = new int[coinTypes.size()];
+		for (int i = 0; i < coinKinds.length; i++) {
+			coinKinds[i] = coinTypes.get(i);
+		}
+		coinSystem = CoinSystem.forKinds(coinKinds);
+		if (selectionButtonCount < 0) {
+			throw new IllegalArgumentException("selectionButtonCount cannot be less than 0");
+		}
+		this.selectionButtonCount = selectionButtonCount;
+		buttons = new VendingMachine.VmButton[selectionButtonCount];
+		popRacks = new RunQueue[selectionButtonCount];
+		rackLocks = new ReentrantLock[selectionButtonCount];
+		for (int i = 0; i < selectionButtonCount; i++) {
+			popRacks[i] = new RunQueue();
+			rackLocks[i] = new ReentrantLock();
+		}
+		coinBanks = new RunQueue[coinKinds.length * Bank.COUNT];
+		bankLocks = new ReentrantLock[coinBanks.length];
+		for (int i = 0; i < coinBanks.length; i++) {
+			coinBanks[i] = new RunQueue();
+			bankLocks[i] = new ReentrantLock();
+		}
+		deliveryChute_change = new RunQueue();
+		deliveryChute_pop = new RunQueue();
+		chuteLock = new ReentrantLock();
+		coinSlot = new AtomicLong();
+		creditLock = new ReentrantLock();
+		scratch = new ThreadLocal<Scratch>() {
+			@Override
+			protected Scratch initialValue() {
+				Scratch ret = new Scratch();
+				ret.changeMaker = coinSystem.createChangeMaker();
+				ret.available = new long[coinSystem.getKindCount()];
+				ret.dispense = new long[coinSystem.getKindCount()];
+				ret.locked = new int[coinSystem.getKindCount()];
+				return ret;
+			}
+		};
+	}
+
+	public int getSelectionButtonCount() {
+		return selectionButtonCount;
+	}
+
+	public int getCoinTypeCount() {
+		return coinSystem.getKindCount();
+	}
+
+	public CoinSystem getCoinSystem() {
+		return coinSystem;
+	}
+
+	/**
+	 * @return the credit entered by customers and not yet spent
+	 */
+	public long getCredit() {
+		return coinSlot.get();
+	}
+
+	/**
+	 * Sets the name and cost of the pop sold by a selection button. Pops
+	 * already in the button's rack stay there.
+	 */
+	public void setButton(int buttonIndex, String name, Integer cost)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		if (buttonIndex < 0 || buttonIndex > buttons.length - 1) {
+			throw new IndexOutOfBoundsException("button doesn't exist");
+		}
+		VendingMachine.VmButton button = new VendingMachine.VmButton(name, cost);
+		rackLocks[buttonIndex].lock();
+		try {
+			buttons[buttonIndex] = button;
+		} finally {
+			rackLocks[buttonIndex].unlock();
+		}
+	}
+
+	/**
+	 * Loads count coins of the given value into the change bank of a coin
+	 * kind, in time independent of count
+	 */
+	public void addCoins(int coinKindIndex, int value, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		if (coinKindIndex < 0 || coinKindIndex > coinSystem.getKindCount() - 1) {
+			throw new IndexOutOfBoundsException("coin index out of bounds");
+		}
+		if (value <= 0) {
+			throw new IllegalArgumentException("coin values must be positive");
+		}
+		if (count < 0) {
+			throw new IllegalArgumentException("coin count cannot be negative");
+		}
+		int slot = coinKindIndex * Bank.COUNT + Bank.CHANGE.ordinal();
+		bankLocks[slot].lock();
+		try {
+			coinBanks[slot].add(value, count);
+		} finally {
+			bankLocks[slot].unlock();
+		}
+	}
+
+	/**
+	 * Loads count pops of the given brand into the rack of a selection button,
+	 * in time independent of count
+	 */
+	public void addPops(int popKindIndex, String brand, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		if (popKindIndex < 0 || popKindIndex > popRacks.length - 1) {
+			throw new IndexOutOfBoundsException("pop index out of bounds");
+		}
+		if (brand.isEmpty() || brand.length() < 3) {
+			throw new IllegalArgumentException("pop name cannot be an empty string");
+		}
+		if (count < 0) {
+			throw new IllegalArgumentException("pop count cannot be negative");
+		}
+		int id = Brands.intern(brand);
+		rackLocks[popKindIndex].lock();
+		try {
+			if (buttons[popKindIndex] == null) {
+				throw new IndexOutOfBoundsException("pop index out of bounds");
+			}
+			popRacks[popKindIndex].add(id, count);
+		} finally {
+			rackLocks[popKindIndex].unlock();
+		}
+	}
+
+	public void putCoin(Coin coin) {
+		int coinKindIndex = coinSystem.indexOf(coin.getValue());
+		if (coinKindIndex >= 0) {
+			int slot = coinKindIndex * Bank.COUNT + Bank.PAYMENT.ordinal();
+			bankLocks[slot].lock();
+			try {
+				coinBanks[slot].add(coin.getValue(), 1);
+			} finally {
+				bankLocks[slot].unlock();
+			}
+			coinSlot.addAndGet(coin.getValue());
+		} else {
+			chuteLock.lock();
+			try {
+				deliveryChute_change.add(coin.getValue(), 1);
+			} finally {
+				chuteLock.unlock();
+			}
+		}
+	}
+
+	public void purchase(int buttonIndex) throws IndexOutOfBoundsException {
+		if (buttonIndex < 0 || buttonIndex > buttons.length - 1) {
+			throw new IndexOutOfBoundsException("button doesn't exist");
+		}
+		long credit;
+		int cost;
+		int brand;
+		rackLocks[buttonIndex].lock();
+		try {
+			if (buttons[buttonIndex] == null) {
+				throw new IndexOutOfBoundsException("button doesn't exist");
+			}
+			cost = buttons[buttonIndex].getCost();
+			if (popRacks[buttonIndex].isEmpty()) {
+				// no more pop
+				return;
+			}
+			// the credit lock is held until the change is settled, so other
+			// purchases see the credit left by this one; coins inserted
+			// meanwhile only add to it
+			creditLock.lock();
+			credit = coinSlot.get();
+			if (cost > credit) {
+				// not enough money
+				creditLock.unlock();
+				return;
+			}
+			brand = popRacks[buttonIndex].poll();
+		} finally {
+			rackLocks[buttonIndex].unlock();
+		}
+		long dueChange = credit - cost;
+		long paid = 0;
+		Scratch cur = scratch.get();
+		int lockCount = 0;
+		try {
+			// only the change banks of coins small enough to be handed out
+			for (int i = 0; i < cur.available.length; i++) {
+				cur.available[i] = 0;
+				if (coinSystem.getValue(i) <= dueChange) {
+					int slot = i * Bank.COUNT + Bank.CHANGE.ordinal();
+					bankLocks[slot].lock();
+					cur.locked[lockCount++] = slot;
+					cur.available[i] = coinBanks[slot].size();
+				}
+			}
+			paid = lockCount == 0 ? 0 : cur.changeMaker.makeChange(dueChange, cur.available, cur.dispense);
+			chuteLock.lock();
+			try {
+				deliveryChute_pop.add(brand, 1);
+				for (int i = 0; i < lockCount; i++) {
+					int slot = cur.locked[i];
+					long count = cur.dispense[slot / Bank.COUNT];
+					if (count > 0) {
+						coinBanks[slot].transferTo(deliveryChute_change, count);
+					}
+				}
+			} finally {
+				chuteLock.unlock();
+			}
+			coinSlot.addAndGet(-(cost + paid));
+		} finally {
+			for (int i = lockCount - 1; i >= 0; i--) {
+				bankLocks[cur.locked[i]].unlock();
+			}
+			creditLock.unlock();
+		}
+	}
+
+	/**
+	 * Empties the delivery chute, only adding what it held to the summary
+	 */
+	public void drainSummary(ChuteSummary into) {
+		chuteLock.lock();
+		try {
+			into.addCoins(deliveryChute_change);
+			into.addPops(deliveryChute_pop);
+			deliveryChute_change.clear();
+			deliveryChute_pop.clear();
+		} finally {
+			chuteLock.unlock();
+		}
+	}
+
+	/**
+	 * Empties the delivery chute. The returned list only creates Coin and Pop
+	 * objects as they are read.
+	 */
+	public DeliveryList drainChute() {
+		chuteLock.lock();
+		try {
+			DeliveryList ret = new DeliveryList(new CoinList(deliveryChute_change), new PopList(deliveryChute_pop));
+			deliveryChute_change.clear();
+			deliveryChute_pop.clear();
+			return ret;
+		} finally {
+			chuteLock.unlock();
+		}
+	}
+
+	/**
+	 * Moves the contents of the given bank of every coin kind, in coin kind
+	 * order, into the supplied queue. All banks of that kind are locked
+	 * together, so the result is consistent.
+	 */
+	public void unloadCoins(Bank bank, RunQueue into) {
+		for (int i = bank.ordinal(); i < coinBanks.length; i += Bank.COUNT) {
+			bankLocks[i].lock();
+		}
+		try {
+			for (int i = bank.ordinal(); i < coinBanks.length; i += Bank.COUNT) {
+				coinBanks[i].drainTo(into);
+			}
+		} finally {
+			for (int i = bank.ordinal(); i < coinBanks.length; i += Bank.COUNT) {
+				bankLocks[i].unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return the combined value of the given bank over every coin kind
+	 */
+	public long getBankTotal(Bank bank) {
+		long total = 0;
+		for (int i = bank.ordinal(); i < coinBanks.length; i += Bank.COUNT) {
+			bankLocks[i].lock();
+			try {
+				total += coinBanks[i].getTotal();
+			} finally {
+				bankLocks[i].unlock();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Empties every pop rack. The returned list only creates Pop objects as
+	 * they are read.
+	 */
+	public PopList unloadPops() {
+		RunQueue ret = new RunQueue();
+		for (int i = 0; i < popRacks.length; i++) {
+			rackLocks[i].lock();
+			try {
+				popRacks[i].drainTo(ret);
+			} finally {
+				rackLocks[i].unlock();
+			}
+		}
+		return new PopList(ret);
+	}
+
+	/**
+	 * @return the number of pops left in the rack of a selection button
+	 */
+	public long getPopCount(int buttonIndex) throws IndexOutOfBoundsException {
+		if (buttonIndex < 0 || buttonIndex > popRacks.length - 1) {
+			throw new IndexOutOfBoundsException("button doesn't exist");
+		}
+		rackLocks[buttonIndex].lock();
+		try {
+			return popRacks[buttonIndex].size();
+		} finally {
+			rackLocks[buttonIndex].unlock();
+		}
+	}
+}
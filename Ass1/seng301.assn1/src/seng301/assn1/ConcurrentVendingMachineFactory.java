@@ -0,0 +1,203 @@
+package seng301.assn1;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.lsmr.vending.frontend1.Coin;
+import org.lsmr.vending.frontend1.Deliverable;
+import org.lsmr.vending.frontend1.IVendingMachineFactory;
+import org.lsmr.vending.frontend1.Pop;
+
+/**
+ * A factory that any number of threads can use at once, without outside
+ * locking, to construct and drive vending machines. Machines are held in a
+ * {@link MachineRegistry} and are {@link ConcurrentVendingMachine}s, so both
+ * creating machines and operating on them are thread safe. The behaviour of
+ * each operation is the same as in {@link VendingMachineFactory}.
+ */
+public class ConcurrentVendingMachineFactory implements IVendingMachineFactory {
+	/**
+	 * The vending machines, indexed in order of construction
+	 */
+	private MachineRegistry<ConcurrentVendingMachine> machines;
+
+	/**
+	 * Basic constructor.
+	 */
+	public ConcurrentVendingMachineFactory() {
+		machines = new MachineRegistry<ConcurrentVendingMachine>();
+	}
+
+	/**
+	 * Gives direct access to a vending machine, for operations not covered by
+	 * {@link IVendingMachineFactory}.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             If the vmIndex is less than 0 or greater than or equal to
+	 *             the number of vending machines currently constructed.
+	 */
+	public ConcurrentVendingMachine getVendingMachine(int vmIndex) throws IndexOutOfBoundsException {
+		ConcurrentVendingMachine ret = machines.get(vmIndex);
+		if (ret == null) {
+			throw new IndexOutOfBoundsException("the selected vending machine is not yet constructed");
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the number of vending machines constructed so far
+	 */
+	public int getVendingMachineCount() {
+		return machines.size();
+	}
+
+	@Override
+	public List<Deliverable> extractFromDeliveryChute(int vmIndex) throws IndexOutOfBoundsException {
+		return getVendingMachine(vmIndex).drainChute();
+	}
+
+	/**
+	 * Empties the delivery chute of a vending machine without creating any
+	 * Coin or Pop objects, adding the value of the coins and the number of
+	 * pops of each brand to the summary.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             If the vmIndex is less than 0 or greater than or equal to
+	 *             the number of vending machines currently constructed.
+	 */
+	public void extractSummaryFromDeliveryChute(int vmIndex, ChuteSummary summary)
+			throws IndexOutOfBoundsException {
+		getVendingMachine(vmIndex).drainSummary(summary);
+	}
+
+	@Override
+	public void insertCoin(int vmIndex, Coin coin) throws IndexOutOfBoundsException, NullPointerException {
+		ConcurrentVendingMachine machine = getVendingMachine(vmIndex);
+		if (coin == null) {
+			throw new NullPointerException("coin cannot be null");
+		}
+		machine.putCoin(coin);
+	}
+
+	@Override
+	public void pressButton(int vmIndex, int value) throws IndexOutOfBoundsException {
+		ConcurrentVendingMachine machine = getVendingMachine(vmIndex);
+		if (value < 0 || value > machine.getSelectionButtonCount() - 1) {
+			throw new IndexOutOfBoundsException("the button does not exist");
+		}
+		machine.purchase(value);
+	}
+
+	@Override
+	public int constructNewVendingMachine(List<Integer> coinKinds, int selectionButtonCount)
+			throws IllegalArgumentException, IllegalStateException {
+		return machines.add(new ConcurrentVendingMachine(coinKinds, selectionButtonCount));
+	}
+
+	@Override
+	public void configureVendingMachine(int vmIndex, List<String> popNames, List<Integer> popCosts)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		ConcurrentVendingMachine machine = getVendingMachine(vmIndex);
+		if (popNames == null || popCosts == null) {
+			throw new IllegalArgumentException("arguments may not be null");
+		}
+		if (popNames.size() != machine.getSelectionButtonCount()
+				|| popCosts.size() != machine.getSelectionButtonCount()) {
+			throw new IllegalArgumentException("data lists do not match the number of buttons constructed");
+		}
+		Iterator<String> itN = popNames.iterator();
+		Iterator<Integer> itC = popCosts.iterator();
+		for (int i = 0; itN.hasNext() && itC.hasNext(); i++) {
+			machine.setButton(i, itN.next(), itC.next());
+		}
+	}
+
+	@Override
+	public void loadCoins(int vmIndex, int coinKindIndex, Coin... coins)
+			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
+		ConcurrentVendingMachine machine = getVendingMachine(vmIndex);
+		if (coinKindIndex < 0 || coinKindIndex > machine.getCoinTypeCount() - 1) {
+			throw new IndexOutOfBoundsException("the coinKindIndex is out of bounds");
+		}
+		if (coins == null) {
+			throw new NullPointerException("coin array cannot be null");
+		}
+		for (int i = 0; i < coins.length; i++) {
+			if (coins[i] == null) {
+				throw new NullPointerException("coin cannot be null");
+			}
+		}
+		// hand identical neighbouring coins over as a single run
+		int start = 0;
+		for (int i = 1; i <= coins.length; i++) {
+			if (i == coins.length || coins[i].getValue() != coins[start].getValue()) {
+				machine.addCoins(coinKindIndex, coins[start].getValue(), i - start);
+				start = i;
+			}
+		}
+	}
+
+	@Override
+	public void loadPops(int vmIndex, int popKindIndex, Pop... pops)
+			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
+		ConcurrentVendingMachine machine = getVendingMachine(vmIndex);
+		if (popKindIndex < 0 || popKindIndex > machine.getSelectionButtonCount() - 1) {
+			throw new IndexOutOfBoundsException("the selected pop kind does not exist");
+		}
+		if (pops == null) {
+			throw new NullPointerException("pop array cannot be null");
+		}
+		for (int i = 0; i < pops.length; i++) {
+			if (pops[i] == null) {
+				throw new NullPointerException("pop cannot be null");
+			}
+		}
+		// hand identical neighbouring pops over as a single run
+		int start = 0;
+		for (int i = 1; i <= pops.length; i++) {
+			if (i == pops.length || !pops[i].getName().equals(pops[start].getName())) {
+				machine.addPops(popKindIndex, pops[start].getName(), i - start);
+				start = i;
+			}
+		}
+	}
+
+	@Override
+	public void loadCoins(int vmIndex, int coinKindIndex, int value, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		ConcurrentVendingMachine machine = getVendingMachine(vmIndex);
+		if (coinKindIndex < 0 || coinKindIndex > machine.getCoinTypeCount() - 1) {
+			throw new IndexOutOfBoundsException("the coinKindIndex is out of bounds");
+		}
+		if (VendingMachine.checkCoinLoad(count)) {
+			machine.addCoins(coinKindIndex, value, count);
+		}
+	}
+
+	@Override
+	public void loadPops(int vmIndex, int popKindIndex, String name, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		ConcurrentVendingMachine machine = getVendingMachine(vmIndex);
+		if (popKindIndex < 0 || popKindIndex > machine.getSelectionButtonCount() - 1) {
+			throw new IndexOutOfBoundsException("the selected pop kind does not exist");
+		}
+		if (VendingMachine.checkPopLoad(name, count)) {
+			machine.addPops(popKindIndex, name, count);
+		}
+	}
+
+	@Override
+	public List<List<?>> unloadVendingMachine(int vmIndex) throws IndexOutOfBoundsException {
+		ConcurrentVendingMachine machine = getVendingMachine(vmIndex);
+		List<List<?>> ret = new ArrayList<List<?>>();
+		RunQueue change = new RunQueue();
+		machine.unloadCoins(Bank.CHANGE, change);
+		ret.add(new CoinList(change));
+		RunQueue payment = new RunQueue();
+		machine.unloadCoins(Bank.PAYMENT, payment);
+		ret.add(new CoinList(payment));
+		ret.add(machine.unloadPops());
+		return ret;
+	}
+}
@@ -0,0 +1,117 @@
+package seng301.assn1;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.lsmr.vending.frontend1.Coin;
+
+/**
+ * Drives one {@link ConcurrentVendingMachine} from many threads at once and
+ * then checks that no money or pop was created or lost. Exits with a non-zero
+ * status if a check fails, so it can be run as a check.
+ */
+public class ConcurrentVendingMachineStress {
+	private static final int THREADS = 8;
+	private static final int OPERATIONS = 200000;
+	private static final int[] COIN_KINDS = { 5, 10, 25, 100 };
+	private static final int[] COSTS = { 65, 100, 135, 250 };
+
+	public static void main(String[] args) throws InterruptedException {
+		final ConcurrentVendingMachine machine = new ConcurrentVendingMachine(
+				Arrays.asList(COIN_KINDS[0], COIN_KINDS[1], COIN_KINDS[2], COIN_KINDS[3]), COSTS.length);
+		final String[] brands = new String[COSTS.length];
+		for (int i = 0; i < COSTS.length; i++) {
+			brands[i] = "\"pop" + i + "\"";
+			machine.setButton(i, brands[i], COSTS[i]);
+		}
+		final AtomicLong loadedValue = new AtomicLong();
+		final AtomicLong loadedPops = new AtomicLong();
+		final AtomicLong insertedValid = new AtomicLong();
+		final AtomicLong insertedInvalid = new AtomicLong();
+		final ChuteSummary[] summaries = new ChuteSummary[THREADS];
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++) {
+			final ChuteSummary summary = summaries[t] = new ChuteSummary();
+			final Random random = new Random(t);
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < OPERATIONS; i++) {
+						int op = random.nextInt(100);
+						if (op < 2) {
+							int kind = random.nextInt(COIN_KINDS.length);
+							int count = random.nextInt(20);
+							machine.addCoins(kind, COIN_KINDS[kind], count);
+							loadedValue.addAndGet((long) COIN_KINDS[kind] * count);
+						} else if (op < 4) {
+							int count = random.nextInt(5);
+							int rack = random.nextInt(COSTS.length);
+							machine.addPops(rack, brands[rack], count);
+							loadedPops.addAndGet(count);
+						} else if (op < 60) {
+							if (random.nextInt(50) == 0) {
+								machine.putCoin(new Coin(3));
+								insertedInvalid.addAndGet(3);
+							} else {
+								int value = COIN_KINDS[random.nextInt(COIN_KINDS.length)];
+								machine.putCoin(new Coin(value));
+								insertedValid.addAndGet(value);
+							}
+						} else if (op < 90) {
+							machine.purchase(random.nextInt(COSTS.length));
+						} else {
+							machine.drainSummary(summary);
+						}
+					}
+				}
+			};
+		}
+		long start = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		ChuteSummary delivered = new ChuteSummary();
+		machine.drainSummary(delivered);
+		long deliveredCoins = delivered.getCoinValue();
+		long deliveredPops = 0;
+		long spent = 0;
+		for (int b = 0; b < COSTS.length; b++) {
+			long count = delivered.getPopCount(brands[b]);
+			for (ChuteSummary summary : summaries) {
+				count += summary.getPopCount(brands[b]);
+			}
+			deliveredPops += count;
+			spent += count * COSTS[b];
+		}
+		for (ChuteSummary summary : summaries) {
+			deliveredCoins += summary.getCoinValue();
+		}
+		long remainingPops = 0;
+		for (int b = 0; b < COSTS.length; b++) {
+			remainingPops += machine.getPopCount(b);
+		}
+		long banked = machine.getBankTotal(Bank.CHANGE) + machine.getBankTotal(Bank.PAYMENT);
+
+		boolean ok = true;
+		ok &= check("coins", loadedValue.get() + insertedValid.get() + insertedInvalid.get(), banked + deliveredCoins);
+		ok &= check("pops", loadedPops.get(), remainingPops + deliveredPops);
+		ok &= check("credit", insertedValid.get(),
+				machine.getCredit() + spent + deliveredCoins - insertedInvalid.get());
+		System.out.println(THREADS * (long) OPERATIONS * 1000000000L / elapsed + " operations/s, " + deliveredPops
+				+ " pops sold");
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	private static boolean check(String what, long expected, long actual) {
+		System.out.println(what + ": expected " + expected + ", found " + actual);
+		return expected == actual;
+	}
+}
@@ -0,0 +1,422 @@
+package seng301.assn1;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import org.lsmr.vending.frontend1.Coin;
+import org.lsmr.vending.frontend1.IVendingMachineFactory;
+import org.lsmr.vending.frontend1.Pop;
+
+/**
+ * Simulates customers using a fleet of vending machines, as a capacity test
+ * for any {@link IVendingMachineFactory}. The generator builds and stocks the
+ * fleet, then lets customers arrive at the configured rate. Each customer
+ * walks up to a random machine, picks a button according to the button
+ * preferences, inserts coins drawn from the coin mix until the pop is paid
+ * for, presses the button and takes everything out of the delivery chute.
+ * Finally every machine is unloaded. The latency of every factory call is
+ * recorded per {@link Operation}.
+ *
+ * <p>
+ * Each customer runs as its own task on the executor given to
+ * {@link #run(ExecutorService)}. On Java 21 and later a
+ * virtual-thread-per-task executor gives every customer its own thread; the
+ * default is a fixed pool of platform threads. Factories that are not thread
+ * safe, such as {@link VendingMachineFactory}, must be driven by a single
+ * thread.
+ */
+public class CustomerLoadGenerator {
+	/**
+	 * The factory calls whose latencies are recorded
+	 */
+	public enum Operation {
+		CONSTRUCT, CONFIGURE, LOAD_COINS, LOAD_POPS, INSERT_COIN, PRESS_BUTTON, EXTRACT, UNLOAD;
+
+		public static final int COUNT = values().length;
+	}
+
+	private IVendingMachineFactory factory;
+	private int machineCount;
+	private int customerCount;
+	private int purchasesPerCustomer;
+	private double arrivalRate;
+	private List<Integer> coinKinds;
+	private int[] mixValues;
+	private double[] mixWeights;
+	private List<String> popNames;
+	private List<Integer> popCosts;
+	private double[] buttonWeights;
+	private int coinStock;
+	private int popStock;
+
+	private LatencyHistogram[] histograms;
+	/**
+	 * During a run, sets of histograms, one per operation, each shared by the
+	 * customers that picked it and guarded by its own lock
+	 */
+	private LatencyHistogram[][] stripes;
+	private long elapsed;
+
+	/**
+	 * Basic constructor. Sets up a fleet of machines taking 5, 10, 25 and 100
+	 * cent coins with four buttons, each visited by one purchase per customer,
+	 * with every customer arriving at once.
+	 */
+	public CustomerLoadGenerator(IVendingMachineFactory factory, int machineCount, int customerCount)
+			throws IllegalArgumentException {
+		if (factory == null) {
+			throw new IllegalArgumentException("arguments may not be null");
+		}
+		if (machineCount <= 0 || customerCount < 0) {
+			throw new IllegalArgumentException("there must be at least one machine and no fewer than 0 customers");
+		}
+		this.factory = factory;
+		this.machineCount = machineCount;
+		this.customerCount = customerCount;
+		purchasesPerCustomer = 1;
+		coinKinds = Arrays.asList(5, 10, 25, 100);
+		setCoinMix(new int[] { 5, 10, 25, 100 }, new double[] { 1, 2, 4, 3 });
+		popNames = Arrays.asList("\"Coke\"", "\"water\"", "\"stuff\"", "\"juice\"");
+		popCosts = Arrays.asList(250, 100, 135, 65);
+		setButtonPreferences(new double[] { 4, 3, 2, 1 });
+		coinStock = 50;
+		popStock = 1000;
+	}
+
+	/**
+	 * Sets the mean number of customers arriving per second, spread as a
+	 * Poisson process; 0 or less lets every customer arrive at once.
+	 */
+	public void setArrivalRate(double customersPerSecond) {
+		arrivalRate = customersPerSecond;
+	}
+
+	public void setPurchasesPerCustomer(int purchases) throws IllegalArgumentException {
+		if (purchases < 1) {
+			throw new IllegalArgumentException("every customer must make at least one purchase");
+		}
+		purchasesPerCustomer = purchases;
+	}
+
+	/**
+	 * Sets the coins customers pay with, each value drawn with probability
+	 * proportional to its weight. Values the machines do not accept are
+	 * allowed; they are returned through the delivery chute.
+	 */
+	public void setCoinMix(int[] values, double[] weights) throws IllegalArgumentException {
+		checkWeights(values.length, weights);
+		boolean accepted = false;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] <= 0) {
+				throw new IllegalArgumentException("coin values must be positive");
+			}
+			accepted |= weights[i] > 0 && coinKinds.contains(values[i]);
+		}
+		if (!accepted) {
+			throw new IllegalArgumentException("customers must be able to pay with an accepted coin");
+		}
+		mixValues = values.clone();
+		mixWeights = cumulative(weights);
+	}
+
+	/**
+	 * Sets how likely each button is to be chosen, proportionally to its
+	 * weight
+	 */
+	public void setButtonPreferences(double[] weights) throws IllegalArgumentException {
+		checkWeights(popNames.size(), weights);
+		buttonWeights = cumulative(weights);
+	}
+
+	/**
+	 * Sets the coin kinds of the machines, and the pops sold by their buttons;
+	 * the coin mix must be set again afterwards if it pays with a coin kind no
+	 * longer accepted, and all buttons are then equally preferred.
+	 */
+	public void setMachines(List<Integer> coinKinds, List<String> popNames, List<Integer> popCosts)
+			throws IllegalArgumentException {
+		if (popNames.isEmpty() || popNames.size() != popCosts.size()) {
+			throw new IllegalArgumentException("data lists do not match the number of buttons constructed");
+		}
+		this.coinKinds = new ArrayList<Integer>(coinKinds);
+		this.popNames = new ArrayList<String>(popNames);
+		this.popCosts = new ArrayList<Integer>(popCosts);
+		double[] weights = new double[popNames.size()];
+		Arrays.fill(weights, 1);
+		buttonWeights = cumulative(weights);
+	}
+
+	/**
+	 * Sets how many coins of each kind and pops for each button every machine
+	 * is loaded with before customers arrive
+	 */
+	public void setStock(int coinsPerKind, int popsPerButton) throws IllegalArgumentException {
+		if (coinsPerKind < 0 || popsPerButton < 0) {
+			throw new IllegalArgumentException("stock cannot be negative");
+		}
+		coinStock = coinsPerKind;
+		popStock = popsPerButton;
+	}
+
+	private static void checkWeights(int length, double[] weights) throws IllegalArgumentException {
+		if (weights.length != length) {
+			throw new IllegalArgumentException("there must be one weight for each choice");
+		}
+		double total = 0;
+		for (double weight : weights) {
+			if (!(weight >= 0)) {
+				throw new IllegalArgumentException("weights cannot be negative");
+			}
+			total += weight;
+		}
+		if (total <= 0) {
+			throw new IllegalArgumentException("at least one weight must be positive");
+		}
+	}
+
+	private static double[] cumulative(double[] weights) {
+		double[] ret = new double[weights.length];
+		double total = 0;
+		for (int i = 0; i < weights.length; i++) {
+			total += weights[i];
+			ret[i] = total;
+		}
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] /= total;
+		}
+		return ret;
+	}
+
+	private static int choose(double[] cumulative, Random random) {
+		double point = random.nextDouble();
+		for (int i = 0; i < cumulative.length - 1; i++) {
+			if (point < cumulative[i]) {
+				return i;
+			}
+		}
+		return cumulative.length - 1;
+	}
+
+	/**
+	 * @return a set of histograms to record into, chosen at random so that
+	 *         concurrent customers rarely share one
+	 */
+	private LatencyHistogram[] getRecorder() {
+		return stripes[ThreadLocalRandom.current().nextInt(stripes.length)];
+	}
+
+	private static void record(LatencyHistogram[] recorder, Operation operation, long nanos) {
+		synchronized (recorder) {
+			recorder[operation.ordinal()].record(nanos);
+		}
+	}
+
+	/**
+	 * Builds and stocks the fleet, runs every customer on the executor and
+	 * unloads the fleet. The executor is not shut down.
+	 */
+	public void run(ExecutorService executor) throws InterruptedException {
+		stripes = new LatencyHistogram[4 * Runtime.getRuntime().availableProcessors()][Operation.COUNT];
+		for (LatencyHistogram[] stripe : stripes) {
+			for (int i = 0; i < stripe.length; i++) {
+				stripe[i] = new LatencyHistogram();
+			}
+		}
+		LatencyHistogram[] setup = stripes[0];
+		int[] machines = buildFleet(setup);
+
+		final CountDownLatch done = new CountDownLatch(customerCount);
+		long start = System.nanoTime();
+		long arrival = start;
+		Random random = new Random();
+		for (int i = 0; i < customerCount; i++) {
+			if (arrivalRate > 0) {
+				arrival += (long) (-Math.log(1 - random.nextDouble()) / arrivalRate * 1e9);
+				long wait;
+				while ((wait = arrival - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(wait);
+				}
+			}
+			final int machine = machines[random.nextInt(machines.length)];
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						visit(machine);
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		done.await();
+		elapsed = System.nanoTime() - start;
+
+		for (int vm : machines) {
+			long before = System.nanoTime();
+			factory.unloadVendingMachine(vm);
+			record(setup, Operation.UNLOAD, System.nanoTime() - before);
+		}
+
+		histograms = new LatencyHistogram[Operation.COUNT];
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+		for (LatencyHistogram[] cur : stripes) {
+			for (int i = 0; i < histograms.length; i++) {
+				histograms[i].add(cur[i]);
+			}
+		}
+		stripes = null;
+	}
+
+	private int[] buildFleet(LatencyHistogram[] recorder) {
+		Coin[][] coins = new Coin[coinKinds.size()][coinStock];
+		for (int k = 0; k < coins.length; k++) {
+			Arrays.fill(coins[k], new Coin(coinKinds.get(k)));
+		}
+		Pop[][] pops = new Pop[popNames.size()][popStock];
+		for (int b = 0; b < pops.length; b++) {
+			Arrays.fill(pops[b], new Pop(popNames.get(b)));
+		}
+		int[] ret = new int[machineCount];
+		for (int i = 0; i < machineCount; i++) {
+			long before = System.nanoTime();
+			ret[i] = factory.constructNewVendingMachine(coinKinds, popNames.size());
+			long after = System.nanoTime();
+			record(recorder, Operation.CONSTRUCT, after - before);
+			factory.configureVendingMachine(ret[i], popNames, popCosts);
+			before = System.nanoTime();
+			record(recorder, Operation.CONFIGURE, before - after);
+			for (int k = 0; k < coins.length; k++) {
+				factory.loadCoins(ret[i], k, coins[k]);
+				after = System.nanoTime();
+				record(recorder, Operation.LOAD_COINS, after - before);
+				before = after;
+			}
+			for (int b = 0; b < pops.length; b++) {
+				factory.loadPops(ret[i], b, pops[b]);
+				after = System.nanoTime();
+				record(recorder, Operation.LOAD_POPS, after - before);
+				before = after;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * One customer's visit to a machine
+	 */
+	private void visit(int vm) {
+		LatencyHistogram[] recorder = getRecorder();
+		Random random = ThreadLocalRandom.current();
+		for (int p = 0; p < purchasesPerCustomer; p++) {
+			int button = choose(buttonWeights, random);
+			int cost = popCosts.get(button);
+			int credit = 0;
+			while (credit < cost) {
+				int value = mixValues[choose(mixWeights, random)];
+				long before = System.nanoTime();
+				factory.insertCoin(vm, new Coin(value));
+				record(recorder, Operation.INSERT_COIN, System.nanoTime() - before);
+				if (coinKinds.contains(value)) {
+					credit += value;
+				}
+			}
+			long before = System.nanoTime();
+			factory.pressButton(vm, button);
+			long after = System.nanoTime();
+			record(recorder, Operation.PRESS_BUTTON, after - before);
+			factory.extractFromDeliveryChute(vm);
+			record(recorder, Operation.EXTRACT, System.nanoTime() - after);
+		}
+	}
+
+	/**
+	 * @return the latencies of the given operation in the last run
+	 * @throws IllegalStateException
+	 *             if the generator has not been run
+	 */
+	public LatencyHistogram getHistogram(Operation operation) throws IllegalStateException {
+		if (histograms == null) {
+			throw new IllegalStateException("the generator has not been run");
+		}
+		return histograms[operation.ordinal()];
+	}
+
+	/**
+	 * @return the nanoseconds from the first customer arriving to the last one
+	 *         leaving, in the last run
+	 */
+	public long getElapsedNanos() {
+		return elapsed;
+	}
+
+	/**
+	 * Prints the throughput of the customer phase and, for every operation,
+	 * its call count and latency percentiles in microseconds
+	 */
+	public void report(PrintStream out) throws IllegalStateException {
+		long calls = 0;
+		for (Operation operation : Operation.values()) {
+			if (operation.compareTo(Operation.INSERT_COIN) >= 0 && operation != Operation.UNLOAD) {
+				calls += getHistogram(operation).getCount();
+			}
+		}
+		double seconds = Math.max(elapsed, 1) / 1e9;
+		out.printf("%d customers in %.3f s: %.0f customers/s, %.0f calls/s%n", customerCount, seconds,
+				customerCount / seconds, calls / seconds);
+		out.printf("%-13s %10s %10s %10s %10s %10s %10s %10s%n", "operation", "calls", "mean", "p50", "p90", "p99",
+				"p99.9", "max");
+		for (Operation operation : Operation.values()) {
+			LatencyHistogram cur = getHistogram(operation);
+			out.printf("%-13s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n", operation, cur.getCount(),
+					cur.getMean() / 1e3, cur.getPercentile(50) / 1e3, cur.getPercentile(90) / 1e3,
+					cur.getPercentile(99) / 1e3, cur.getPercentile(99.9) / 1e3, cur.getMax() / 1e3);
+		}
+	}
+
+	/**
+	 * Runs the capacity test. Arguments, all optional: the backend (simple,
+	 * concurrent or mailbox; default concurrent), the number of machines
+	 * (default 1000), the number of customers (default 50000), the arrival
+	 * rate in customers per second (default 0, all at once) and the number of
+	 * threads (default twice the number of processors; always 1 for simple).
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		String backend = args.length > 0 ? args[0] : "concurrent";
+		int machines = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int customers = args.length > 2 ? Integer.parseInt(args[2]) : 50000;
+		double rate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : 2 * Runtime.getRuntime().availableProcessors();
+		IVendingMachineFactory factory;
+		if (backend.equals("simple")) {
+			factory = new VendingMachineFactory();
+			threads = 1;
+		} else if (backend.equals("concurrent")) {
+			factory = new ConcurrentVendingMachineFactory();
+		} else if (backend.equals("mailbox")) {
+			factory = new MailboxVendingMachineFactory();
+		} else {
+			throw new IllegalArgumentException("unknown backend: " + backend);
+		}
+		CustomerLoadGenerator generator = new CustomerLoadGenerator(factory, machines, customers);
+		generator.setArrivalRate(rate);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			generator.run(executor);
+		} finally {
+			executor.shutdown();
+		}
+		System.out.println(backend + ", " + machines + " machines, " + threads + " threads");
+		generator.report(System.out);
+	}
+}
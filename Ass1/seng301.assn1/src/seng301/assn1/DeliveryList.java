@@ -0,0 +1,43 @@
+package seng301.assn1;
+
+import java.util.AbstractList;
+
+import org.lsmr.vending.frontend1.Deliverable;
+
+/**
+ * A read-only list of what was taken out of a delivery chute: the coins
+ * followed by the pops. Objects are only created as elements are read.
+ */
+public class DeliveryList extends AbstractList<Deliverable> {
+	private CoinList coins;
+	private PopList pops;
+
+	/**
+	 * Basic Constructor
+	 */
+	public DeliveryList(CoinList coins, PopList pops) {
+		this.coins = coins;
+		this.pops = pops;
+	}
+
+	@Override
+	public Deliverable get(int index) throws IndexOutOfBoundsException {
+		if (index < coins.size()) {
+			return coins.get(index);
+		}
+		return pops.get(index - coins.size());
+	}
+
+	@Override
+	public int size() {
+		return (int) Math.min((long) coins.size() + pops.size(), Integer.MAX_VALUE);
+	}
+
+	public CoinList getCoins() {
+		return coins;
+	}
+
+	public PopList getPops() {
+		return pops;
+	}
+}
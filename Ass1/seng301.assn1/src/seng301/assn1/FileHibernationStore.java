@@ -0,0 +1,167 @@
+package seng301.assn1;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Spills hibernated machines to a local file, keeping only the position and
+ * length of each machine's form on the heap. Forms are appended, and the
+ * space of forms that were taken back is reclaimed by compacting the file,
+ * moving the forms still kept to its start. That happens whenever the dead
+ * space is larger than both the live forms and {@link #COMPACTION_THRESHOLD},
+ * so the file stays within about twice the size of what it keeps, and the
+ * copying costs at most one byte per byte reclaimed.
+ */
+public class FileHibernationStore implements HibernationStore, Closeable {
+	/**
+	 * Bytes of dead space below which the file is never compacted
+	 */
+	public static final long COMPACTION_THRESHOLD = 1 << 20;
+
+	private RandomAccessFile file;
+	private long[] positions;
+	private int[] lengths;
+	private int count;
+	private long end;
+	private long live;
+
+	/**
+	 * Creates a store in the given file, which is emptied first
+	 * 
+	 * @throws UncheckedIOException
+	 *             If the file cannot be opened.
+	 */
+	public FileHibernationStore(File path) throws UncheckedIOException {
+		try {
+			file = new RandomAccessFile(path, "rw");
+			file.setLength(0);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		positions = new long[16];
+		lengths = new int[16];
+		Arrays.fill(lengths, -1);
+	}
+
+	@Override
+	public void put(int vmIndex, byte[] compactForm) throws UncheckedIOException {
+		if (vmIndex >= lengths.length) {
+			int capacity = Math.max(lengths.length * 2, vmIndex + 1);
+			positions = Arrays.copyOf(positions, capacity);
+			int old = lengths.length;
+			lengths = Arrays.copyOf(lengths, capacity);
+			Arrays.fill(lengths, old, capacity, -1);
+		}
+		remove(vmIndex);
+		if (end - live > Math.max(live, COMPACTION_THRESHOLD)) {
+			compact();
+		}
+		try {
+			file.seek(end);
+			file.write(compactForm);
+			positions[vmIndex] = end;
+			end += compactForm.length;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		lengths[vmIndex] = compactForm.length;
+		live += compactForm.length;
+		count++;
+	}
+
+	@Override
+	public byte[] get(int vmIndex) throws UncheckedIOException {
+		if (vmIndex < 0 || vmIndex > lengths.length - 1 || lengths[vmIndex] < 0) {
+			return null;
+		}
+		byte[] ret = new byte[lengths[vmIndex]];
+		try {
+			file.seek(positions[vmIndex]);
+			file.readFully(ret);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return ret;
+	}
+
+	@Override
+	public byte[] take(int vmIndex) throws UncheckedIOException {
+		byte[] ret = get(vmIndex);
+		remove(vmIndex);
+		return ret;
+	}
+
+	@Override
+	public void remove(int vmIndex) throws UncheckedIOException {
+		if (vmIndex < 0 || vmIndex > lengths.length - 1 || lengths[vmIndex] < 0) {
+			return;
+		}
+		live -= lengths[vmIndex];
+		lengths[vmIndex] = -1;
+		count--;
+		if (count == 0) {
+			try {
+				file.setLength(0);
+				end = 0;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Moves every form kept to the start of the file, in the order they are
+	 * stored, and truncates the space left behind
+	 * 
+	 * @throws UncheckedIOException
+	 *             If the file cannot be read or written.
+	 */
+	public void compact() throws UncheckedIOException {
+		Integer[] kept = new Integer[count];
+		int n = 0;
+		for (int i = 0; i < lengths.length; i++) {
+			if (lengths[i] >= 0) {
+				kept[n++] = i;
+			}
+		}
+		Arrays.sort(kept, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(positions[a], positions[b]);
+			}
+		});
+		try {
+			// forms only ever move towards the start, so each is read before
+			// anything is written over it
+			long to = 0;
+			byte[] buffer = new byte[0];
+			for (int i : kept) {
+				if (positions[i] != to) {
+					if (buffer.length < lengths[i]) {
+						buffer = new byte[lengths[i]];
+					}
+					file.seek(positions[i]);
+					file.readFully(buffer, 0, lengths[i]);
+					file.seek(to);
+					file.write(buffer, 0, lengths[i]);
+					positions[i] = to;
+				}
+				to += lengths[i];
+			}
+			file.setLength(to);
+			end = to;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
@@ -0,0 +1,144 @@
+package seng301.assn1;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Running totals of what a fleet of vending machines holds: the number and
+ * value of the coins in each bank, grouped by the denomination of the coin
+ * kind they are banked under, and the number of pops of each brand in the
+ * racks. Machines update the totals as they change, so every total is read in
+ * constant time without touching a machine.
+ */
+public class FleetInventory {
+	/**
+	 * Dense slots for the denominations seen so far
+	 */
+	private HashMap<Integer, Integer> slots;
+
+	/**
+	 * Per slot and bank, laid out as slot * Bank.COUNT + bank ordinal
+	 */
+	private long[] coinCounts;
+	private long[] coinValues;
+	private long[] bankCounts;
+	private long[] bankValues;
+
+	/**
+	 * Per brand id
+	 */
+	private long[] stock;
+	private long totalStock;
+
+	/**
+	 * Basic Constructor
+	 */
+	public FleetInventory() {
+		slots = new HashMap<Integer, Integer>();
+		coinCounts = new long[4 * Bank.COUNT];
+		coinValues = new long[4 * Bank.COUNT];
+		bankCounts = new long[Bank.COUNT];
+		bankValues = new long[Bank.COUNT];
+		stock = new long[16];
+	}
+
+	/**
+	 * @return an independent copy of the totals
+	 */
+	FleetInventory copy() {
+		FleetInventory ret = new FleetInventory();
+		ret.slots = new HashMap<Integer, Integer>(slots);
+		ret.coinCounts = coinCounts.clone();
+		ret.coinValues = coinValues.clone();
+		ret.bankCounts = bankCounts.clone();
+		ret.bankValues = bankValues.clone();
+		ret.stock = stock.clone();
+		ret.totalStock = totalStock;
+		return ret;
+	}
+
+	/**
+	 * @return the slot of a denomination, allocating one if it is new
+	 */
+	int slotOf(int denomination) {
+		Integer ret = slots.get(denomination);
+		if (ret == null) {
+			ret = slots.size();
+			slots.put(denomination, ret);
+			if ((ret + 1) * Bank.COUNT > coinCounts.length) {
+				coinCounts = Arrays.copyOf(coinCounts, coinCounts.length * 2);
+				coinValues = Arrays.copyOf(coinValues, coinValues.length * 2);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Adds coins to (or, with negative arguments, removes them from) a bank
+	 */
+	void addCoins(int slot, Bank bank, long count, long value) {
+		int i = slot * Bank.COUNT + bank.ordinal();
+		coinCounts[i] += count;
+		coinValues[i] += value;
+		bankCounts[bank.ordinal()] += count;
+		bankValues[bank.ordinal()] += value;
+	}
+
+	/**
+	 * Adds pops to (or, with a negative count, removes them from) the racks
+	 */
+	void addPops(int brand, long count) {
+		if (brand >= stock.length) {
+			stock = Arrays.copyOf(stock, Math.max(stock.length * 2, brand + 1));
+		}
+		stock[brand] += count;
+		totalStock += count;
+	}
+
+	/**
+	 * @return the number of coins in the given bank of every coin kind with
+	 *         the given denomination
+	 */
+	public long getCoinCount(Bank bank, int denomination) {
+		Integer slot = slots.get(denomination);
+		return slot == null ? 0 : coinCounts[slot * Bank.COUNT + bank.ordinal()];
+	}
+
+	/**
+	 * @return the value of the coins in the given bank of every coin kind with
+	 *         the given denomination
+	 */
+	public long getCoinValue(Bank bank, int denomination) {
+		Integer slot = slots.get(denomination);
+		return slot == null ? 0 : coinValues[slot * Bank.COUNT + bank.ordinal()];
+	}
+
+	/**
+	 * @return the number of coins in the given bank over the whole fleet
+	 */
+	public long getCoinCount(Bank bank) {
+		return bankCounts[bank.ordinal()];
+	}
+
+	/**
+	 * @return the value of the coins in the given bank over the whole fleet
+	 */
+	public long getCoinValue(Bank bank) {
+		return bankValues[bank.ordinal()];
+	}
+
+	/**
+	 * @return the number of pops of the named brand in the racks of the fleet
+	 */
+	public long getStock(String brand) {
+		int id = Brands.lookup(brand);
+		return id >= 0 && id < stock.length ? stock[id] : 0;
+	}
+
+	/**
+	 * @return the number of pops in the racks of the fleet
+	 */
+	public long getStock() {
+		return totalStock;
+	}
+}
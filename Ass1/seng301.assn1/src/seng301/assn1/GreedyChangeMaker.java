@@ -0,0 +1,38 @@
+package seng301.assn1;
+
+/**
+ * Hands out the largest coins first. Optimal for canonical coin systems as
+ * long as every coin kind is in stock; when the greedy choice cannot make the
+ * exact amount, the optional fallback is consulted instead.
+ */
+public class GreedyChangeMaker implements ChangeMaker {
+	private CoinSystem coinSystem;
+	private ChangeMaker fallback;
+
+	/**
+	 * Basic Constructor
+	 * 
+	 * @param fallback
+	 *            used when the greedy choice falls short; may be null
+	 */
+	public GreedyChangeMaker(CoinSystem coinSystem, ChangeMaker fallback) {
+		this.coinSystem = coinSystem;
+		this.fallback = fallback;
+	}
+
+	@Override
+	public long makeChange(long due, long[] available, long[] dispense) {
+		int[] sortedKinds = coinSystem.getSortedKinds();
+		long remaining = due;
+		for (int i = 0; i < sortedKinds.length; i++) {
+			int kind = sortedKinds[i];
+			long take = Math.min(available[kind], remaining / coinSystem.getValue(kind));
+			dispense[kind] = take;
+			remaining -= take * coinSystem.getValue(kind);
+		}
+		if (remaining != 0 && fallback != null) {
+			return fallback.makeChange(due, available, dispense);
+		}
+		return due - remaining;
+	}
+}
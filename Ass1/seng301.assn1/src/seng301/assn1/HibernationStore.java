@@ -0,0 +1,31 @@
+package seng301.assn1;
+
+/**
+ * Somewhere to keep the compact form of hibernated vending machines, by
+ * machine index
+ */
+public interface HibernationStore {
+	/**
+	 * Keeps the compact form of a machine, replacing any form kept for it
+	 */
+	public void put(int vmIndex, byte[] compactForm);
+
+	/**
+	 * Returns the compact form of a machine, keeping it
+	 * 
+	 * @return the form, or null if none is kept for the machine
+	 */
+	public byte[] get(int vmIndex);
+
+	/**
+	 * Removes and returns the compact form of a machine
+	 * 
+	 * @return the form, or null if none is kept for the machine
+	 */
+	public byte[] take(int vmIndex);
+
+	/**
+	 * Forgets the compact form of a machine, if any
+	 */
+	public void remove(int vmIndex);
+}
@@ -0,0 +1,673 @@
+package seng301.assn1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.lsmr.vending.frontend1.Coin;
+import org.lsmr.vending.frontend1.Deliverable;
+import org.lsmr.vending.frontend1.IVendingMachineFactory;
+import org.lsmr.vending.frontend1.Pop;
+
+/**
+ * A {@link VendingMachineFactory} whose machines survive a crash. Every
+ * operation that changes a machine is appended to a journal file in a compact
+ * binary form, and the machines are rebuilt on startup by replaying the
+ * journal over the last checkpoint.
+ *
+ * <p>
+ * Operations are collected into groups that are written (and, if the
+ * {@link SyncPolicy} asks for it, forced to disk) together, so that many
+ * operations share one write. A group is committed once it holds the
+ * configured number of operations, when an operation arrives after the
+ * configured delay since the first of the group, on {@link #commit()} and on
+ * {@link #close()}. Operations of a group not yet committed are lost in a
+ * crash; callers that go idle should call {@link #commit()}.
+ *
+ * <p>
+ * On {@link #checkpoint()}, or on {@link #checkpointIfDue()} once the journal
+ * has grown past the checkpoint size, the state of every machine is written to
+ * a checkpoint file next to it and the journal starts over. Operations never
+ * take a checkpoint themselves, so callers should call
+ * {@link #checkpointIfDue()} from time to time, between operations.
+ * Operations that can fail after changing a machine, such as a configuration
+ * with a bad button, are journaled even when they fail, and fail in the same
+ * way on replay.
+ *
+ * <p>
+ * Like {@link VendingMachineFactory}, this factory is not thread safe.
+ */
+public class JournaledVendingMachineFactory implements IVendingMachineFactory, Closeable {
+	/**
+	 * How far committed groups are pushed
+	 */
+	public enum SyncPolicy {
+		/**
+		 * Hand each group to the operating system, which survives a crash of
+		 * the program but not of the machine it runs on
+		 */
+		WRITE,
+		/**
+		 * Also force each group to disk before going on
+		 */
+		FSYNC
+	}
+
+	private static final int JOURNAL_MAGIC = 0x564D4A31;
+	private static final int CHECKPOINT_MAGIC = 0x564D4331;
+	private static final int HEADER_SIZE = 12;
+	private static final int FRAME_HEADER = 8;
+
+	private static final byte CONSTRUCT = 0;
+	private static final byte CONFIGURE = 1;
+	private static final byte LOAD_COINS = 2;
+	private static final byte LOAD_POPS = 3;
+	private static final byte INSERT_COIN = 4;
+	private static final byte PRESS_BUTTON = 5;
+	private static final byte EXTRACT = 6;
+	private static final byte UNLOAD = 7;
+
+	private VendingMachineFactory factory;
+	private File journalPath;
+	private File checkpointPath;
+	private SyncPolicy policy;
+	private RandomAccessFile journal;
+	private FileChannel channel;
+	private long epoch;
+	private long journalSize;
+
+	private int groupSize;
+	private long groupDelay;
+	private long checkpointSize;
+
+	/**
+	 * The operations of the group not yet committed, when the first of them
+	 * arrived, and the frame they are written out in
+	 */
+	private CompactWriter pending;
+	private int pendingCount;
+	private long pendingSince;
+	private byte[] frame;
+	private CRC32 crc;
+
+	/**
+	 * Opens the journal in the given file, with its checkpoint in the same
+	 * place with ".checkpoint" appended, and rebuilds the machines they hold.
+	 * Missing files start an empty factory. A group left incomplete by a
+	 * crash is dropped from the end of the journal.
+	 *
+	 * @throws IllegalStateException
+	 *             If the files do not hold a journal and checkpoint that
+	 *             belong together.
+	 * @throws UncheckedIOException
+	 *             If the files cannot be read or written.
+	 */
+	public JournaledVendingMachineFactory(File path, SyncPolicy policy)
+			throws IllegalArgumentException, IllegalStateException, UncheckedIOException {
+		if (path == null || policy == null) {
+			throw new IllegalArgumentException("arguments may not be null");
+		}
+		journalPath = path;
+		checkpointPath = new File(path.getPath() + ".checkpoint");
+		this.policy = policy;
+		factory = new VendingMachineFactory();
+		groupSize = 256;
+		groupDelay = 1000000;
+		checkpointSize = 64L << 20;
+		pending = new CompactWriter(4096);
+		frame = new byte[4096];
+		crc = new CRC32();
+		try {
+			if (checkpointPath.exists()) {
+				readCheckpoint();
+			}
+			long replayed = 0;
+			if (journalPath.length() >= HEADER_SIZE) {
+				replayed = replay();
+			}
+			journal = new RandomAccessFile(journalPath, "rw");
+			channel = journal.getChannel();
+			if (replayed == 0) {
+				startJournal();
+			} else {
+				journal.setLength(replayed);
+				channel.position(replayed);
+				journalSize = replayed;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void readCheckpoint() throws IOException, IllegalStateException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(checkpointPath)))) {
+			if (in.readInt() != CHECKPOINT_MAGIC) {
+				throw new IllegalStateException("the checkpoint is corrupt");
+			}
+			epoch = in.readLong();
+			int[] brands = new int[in.readInt()];
+			for (int i = 0; i < brands.length; i++) {
+				brands[i] = Brands.intern(in.readUTF());
+			}
+			int machines = in.readInt();
+			for (int i = 0; i < machines; i++) {
+				byte[] form = new byte[in.readInt()];
+				in.readFully(form);
+				factory.constructVendingMachineHandle(form, brands);
+			}
+		} catch (EOFException e) {
+			throw new IllegalStateException("the checkpoint is truncated");
+		}
+	}
+
+	/**
+	 * Replays every complete group of the journal, unless it predates the
+	 * checkpoint
+	 *
+	 * @return the length of the journal up to the end of the last complete
+	 *         group, or 0 if the journal has to start over
+	 */
+	private long replay() throws IOException, IllegalStateException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalPath)))) {
+			if (in.readInt() != JOURNAL_MAGIC) {
+				throw new IllegalStateException("the file is not a journal");
+			}
+			long journalEpoch = in.readLong();
+			if (journalEpoch < epoch) {
+				// a crash came between writing a checkpoint and starting over
+				return 0;
+			}
+			if (journalEpoch > epoch) {
+				throw new IllegalStateException("the checkpoint of the journal is missing");
+			}
+			long size = journalPath.length();
+			long ret = HEADER_SIZE;
+			while (true) {
+				int length;
+				long sum;
+				try {
+					length = in.readInt();
+					sum = in.readInt() & 0xFFFFFFFFL;
+				} catch (EOFException e) {
+					return ret;
+				}
+				if (length < 0 || length > size - ret - FRAME_HEADER) {
+					return ret;
+				}
+				byte[] group = new byte[length];
+				in.readFully(group);
+				crc.reset();
+				crc.update(group, 0, length);
+				if (crc.getValue() != sum) {
+					return ret;
+				}
+				CompactReader operations = new CompactReader(group);
+				while (!operations.isAtEnd()) {
+					apply(operations);
+				}
+				ret += FRAME_HEADER + length;
+			}
+		}
+	}
+
+	/**
+	 * Empties the journal and writes its header
+	 */
+	private void startJournal() throws IOException {
+		journal.setLength(0);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(JOURNAL_MAGIC).putLong(epoch).flip();
+		channel.write(header, 0);
+		channel.position(HEADER_SIZE);
+		journalSize = HEADER_SIZE;
+		if (policy == SyncPolicy.FSYNC) {
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Sets how many operations a group holds at most, and how long the first
+	 * may wait for the rest
+	 */
+	public void setGroupCommit(int operations, long delayNanos) throws IllegalArgumentException {
+		if (operations < 1 || delayNanos < 0) {
+			throw new IllegalArgumentException("group limits must be positive");
+		}
+		groupSize = operations;
+		groupDelay = delayNanos;
+	}
+
+	/**
+	 * Sets how large the journal may grow before {@link #checkpointIfDue()}
+	 * takes a checkpoint, or 0 to only take checkpoints on
+	 * {@link #checkpoint()}
+	 */
+	public void setCheckpointSize(long bytes) throws IllegalArgumentException {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("sizes cannot be negative");
+		}
+		checkpointSize = bytes;
+	}
+
+	/**
+	 * Gives the running totals of the coins and pops held by every vending
+	 * machine.
+	 *
+	 * @see VendingMachineFactory#getInventory()
+	 */
+	public FleetInventory getInventory() {
+		return factory.getInventory();
+	}
+
+	/**
+	 * Writes the pending group to the journal, forcing it to disk if the
+	 * policy asks for it
+	 *
+	 * @throws UncheckedIOException
+	 *             If the journal cannot be written.
+	 */
+	public void commit() throws UncheckedIOException {
+		if (pendingCount == 0) {
+			return;
+		}
+		int length = pending.size();
+		if (FRAME_HEADER + length > frame.length) {
+			frame = new byte[Math.max(frame.length * 2, FRAME_HEADER + length)];
+		}
+		pending.copyTo(frame, FRAME_HEADER);
+		crc.reset();
+		crc.update(frame, FRAME_HEADER, length);
+		ByteBuffer out = ByteBuffer.wrap(frame, 0, FRAME_HEADER + length);
+		out.putInt(0, length);
+		out.putInt(4, (int) crc.getValue());
+		try {
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+			if (policy == SyncPolicy.FSYNC) {
+				channel.force(false);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		journalSize += FRAME_HEADER + length;
+		pending.clear();
+		pendingCount = 0;
+	}
+
+	/**
+	 * Takes a checkpoint if the journal has grown past the checkpoint size
+	 * 
+	 * @return whether a checkpoint was taken
+	 * @throws IllegalStateException
+	 *             If a machine uses a custom change maker, which cannot be
+	 *             written.
+	 * @throws UncheckedIOException
+	 *             If the files cannot be written.
+	 */
+	public boolean checkpointIfDue() throws IllegalStateException, UncheckedIOException {
+		if (checkpointSize == 0 || journalSize + pending.size() <= checkpointSize) {
+			return false;
+		}
+		checkpoint();
+		return true;
+	}
+
+	/**
+	 * Writes the state of every machine to the checkpoint file, replacing the
+	 * previous one, and starts the journal over
+	 *
+	 * @throws IllegalStateException
+	 *             If a machine uses a custom change maker, which cannot be
+	 *             written.
+	 * @throws UncheckedIOException
+	 *             If the files cannot be written.
+	 */
+	public void checkpoint() throws IllegalStateException, UncheckedIOException {
+		commit();
+		List<byte[]> forms = new ArrayList<byte[]>();
+		for (int i = 0; i < factory.getVendingMachineCount(); i++) {
+			byte[] form = factory.getCompactForm(i);
+			if (form == null) {
+				throw new IllegalStateException("a machine with a custom change maker cannot be checkpointed");
+			}
+			forms.add(form);
+		}
+		File temporary = new File(checkpointPath.getPath() + ".tmp");
+		try {
+			try (FileOutputStream file = new FileOutputStream(temporary)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+				out.writeInt(CHECKPOINT_MAGIC);
+				out.writeLong(epoch + 1);
+				int brands = Brands.getCount();
+				out.writeInt(brands);
+				for (int i = 0; i < brands; i++) {
+					out.writeUTF(Brands.getName(i));
+				}
+				out.writeInt(forms.size());
+				for (byte[] form : forms) {
+					out.writeInt(form.length);
+					out.write(form);
+				}
+				out.flush();
+				file.getFD().sync();
+			}
+			Files.move(temporary.toPath(), checkpointPath.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			// the rename is only durable once the directory is, and the journal
+			// must not start over while a crash could bring back the old
+			// checkpoint
+			try (FileChannel directory = FileChannel.open(checkpointPath.getAbsoluteFile().getParentFile().toPath(),
+					StandardOpenOption.READ)) {
+				directory.force(true);
+			}
+			epoch++;
+			startJournal();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Commits the pending group and closes the journal. The factory cannot be
+	 * used afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		commit();
+		journal.close();
+	}
+
+	/**
+	 * Ends the record of an operation, committing the group if it is full or
+	 * has waited long enough
+	 */
+	private void recorded() {
+		pendingCount++;
+		if (pendingCount == 1) {
+			pendingSince = System.nanoTime();
+			if (groupSize == 1) {
+				commit();
+			}
+		} else if (pendingCount >= groupSize || System.nanoTime() - pendingSince >= groupDelay) {
+			commit();
+		}
+	}
+
+	private void writeSigned(long value) {
+		pending.writeLong((value << 1) ^ (value >> 63));
+	}
+
+	private static long readSigned(CompactReader in) {
+		long value = in.readLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private void writeNullableString(String value) {
+		pending.writeLong(value == null ? 0 : 1);
+		if (value != null) {
+			pending.writeString(value);
+		}
+	}
+
+	private static String readNullableString(CompactReader in) {
+		return in.readLong() == 0 ? null : in.readString();
+	}
+
+	private void writeNullableInteger(Integer value) {
+		pending.writeLong(value == null ? 0 : 1);
+		if (value != null) {
+			writeSigned(value);
+		}
+	}
+
+	private static Integer readNullableInteger(CompactReader in) {
+		return in.readLong() == 0 ? null : (int) readSigned(in);
+	}
+
+	/**
+	 * Carries out one journaled operation on the factory, failing quietly if
+	 * it failed when it was journaled
+	 */
+	private void apply(CompactReader in) throws IllegalStateException {
+		int operation = in.readInt();
+		if (operation == CONSTRUCT) {
+			int selectionButtonCount = (int) readSigned(in);
+			List<Integer> coinKinds = new ArrayList<Integer>();
+			for (int i = in.readInt(); i > 0; i--) {
+				coinKinds.add(readNullableInteger(in));
+			}
+			factory.constructNewVendingMachine(coinKinds, selectionButtonCount);
+			return;
+		}
+		int vmIndex = (int) readSigned(in);
+		try {
+			switch (operation) {
+			case CONFIGURE:
+				List<String> popNames = null;
+				int names = in.readInt();
+				if (names > 0) {
+					popNames = new ArrayList<String>();
+					for (int i = 1; i < names; i++) {
+						popNames.add(readNullableString(in));
+					}
+				}
+				List<Integer> popCosts = null;
+				int costs = in.readInt();
+				if (costs > 0) {
+					popCosts = new ArrayList<Integer>();
+					for (int i = 1; i < costs; i++) {
+						popCosts.add(readNullableInteger(in));
+					}
+				}
+				factory.configureVendingMachine(vmIndex, popNames, popCosts);
+				break;
+			case LOAD_COINS:
+				int coinKindIndex = (int) readSigned(in);
+				for (int i = in.readInt(); i > 0; i--) {
+					factory.loadCoins(vmIndex, coinKindIndex, (int) readSigned(in), readSigned(in));
+				}
+				break;
+			case LOAD_POPS:
+				int popKindIndex = (int) readSigned(in);
+				for (int i = in.readInt(); i > 0; i--) {
+					factory.loadPops(vmIndex, popKindIndex, readNullableString(in), readSigned(in));
+				}
+				break;
+			case INSERT_COIN:
+				factory.insertCoin(vmIndex, new Coin((int) readSigned(in)));
+				break;
+			case PRESS_BUTTON:
+				factory.pressButton(vmIndex, (int) readSigned(in));
+				break;
+			case EXTRACT:
+				factory.extractSummaryFromDeliveryChute(vmIndex, new ChuteSummary());
+				break;
+			case UNLOAD:
+				factory.unloadVendingMachine(vmIndex);
+				break;
+			default:
+				throw new IllegalStateException("the journal is corrupt");
+			}
+		} catch (IndexOutOfBoundsException | IllegalArgumentException | NullPointerException e) {
+			// the operation failed in the same way when it was journaled
+		}
+	}
+
+	@Override
+	public int constructNewVendingMachine(List<Integer> coinKinds, int selectionButtonCount)
+			throws IllegalArgumentException, IllegalStateException {
+		int ret = factory.constructNewVendingMachine(coinKinds, selectionButtonCount);
+		pending.writeLong(CONSTRUCT);
+		writeSigned(selectionButtonCount);
+		pending.writeLong(coinKinds.size());
+		for (Integer kind : coinKinds) {
+			writeNullableInteger(kind);
+		}
+		recorded();
+		return ret;
+	}
+
+	@Override
+	public void configureVendingMachine(int vmIndex, List<String> popNames, List<Integer> popCosts)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		try {
+			factory.configureVendingMachine(vmIndex, popNames, popCosts);
+		} finally {
+			pending.writeLong(CONFIGURE);
+			writeSigned(vmIndex);
+			pending.writeLong(popNames == null ? 0 : popNames.size() + 1);
+			if (popNames != null) {
+				for (String name : popNames) {
+					writeNullableString(name);
+				}
+			}
+			pending.writeLong(popCosts == null ? 0 : popCosts.size() + 1);
+			if (popCosts != null) {
+				for (Integer cost : popCosts) {
+					writeNullableInteger(cost);
+				}
+			}
+			recorded();
+		}
+	}
+
+	@Override
+	public void loadCoins(int vmIndex, int coinKindIndex, Coin... coins)
+			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
+		// nothing is loaded if a coin is missing
+		factory.loadCoins(vmIndex, coinKindIndex, coins);
+		pending.writeLong(LOAD_COINS);
+		writeSigned(vmIndex);
+		writeSigned(coinKindIndex);
+		int runs = 0;
+		for (int i = 0; i < coins.length; i++) {
+			if (i == 0 || coins[i].getValue() != coins[i - 1].getValue()) {
+				runs++;
+			}
+		}
+		pending.writeLong(runs);
+		int start = 0;
+		for (int i = 1; i <= coins.length; i++) {
+			if (i == coins.length || coins[i].getValue() != coins[start].getValue()) {
+				writeSigned(coins[start].getValue());
+				writeSigned(i - start);
+				start = i;
+			}
+		}
+		recorded();
+	}
+
+	@Override
+	public void loadPops(int vmIndex, int popKindIndex, Pop... pops)
+			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
+		// nothing is loaded if a pop is missing
+		factory.loadPops(vmIndex, popKindIndex, pops);
+		pending.writeLong(LOAD_POPS);
+		writeSigned(vmIndex);
+		writeSigned(popKindIndex);
+		int runs = 0;
+		for (int i = 0; i < pops.length; i++) {
+			if (i == 0 || !pops[i].getName().equals(pops[i - 1].getName())) {
+				runs++;
+			}
+		}
+		pending.writeLong(runs);
+		int start = 0;
+		for (int i = 1; i <= pops.length; i++) {
+			if (i == pops.length || !pops[i].getName().equals(pops[start].getName())) {
+				writeNullableString(pops[start].getName());
+				writeSigned(i - start);
+				start = i;
+			}
+		}
+		recorded();
+	}
+
+	@Override
+	public void loadCoins(int vmIndex, int coinKindIndex, int value, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		try {
+			factory.loadCoins(vmIndex, coinKindIndex, value, count);
+		} finally {
+			pending.writeLong(LOAD_COINS);
+			writeSigned(vmIndex);
+			writeSigned(coinKindIndex);
+			pending.writeLong(1);
+			writeSigned(value);
+			writeSigned(count);
+			recorded();
+		}
+	}
+
+	@Override
+	public void loadPops(int vmIndex, int popKindIndex, String name, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		try {
+			factory.loadPops(vmIndex, popKindIndex, name, count);
+		} finally {
+			pending.writeLong(LOAD_POPS);
+			writeSigned(vmIndex);
+			writeSigned(popKindIndex);
+			pending.writeLong(1);
+			writeNullableString(name);
+			writeSigned(count);
+			recorded();
+		}
+	}
+
+	@Override
+	public void insertCoin(int vmIndex, Coin coin) throws IndexOutOfBoundsException, NullPointerException {
+		// nothing is inserted if the coin is missing
+		factory.insertCoin(vmIndex, coin);
+		pending.writeLong(INSERT_COIN);
+		writeSigned(vmIndex);
+		writeSigned(coin.getValue());
+		recorded();
+	}
+
+	@Override
+	public void pressButton(int vmIndex, int value) throws IndexOutOfBoundsException {
+		factory.pressButton(vmIndex, value);
+		pending.writeLong(PRESS_BUTTON);
+		writeSigned(vmIndex);
+		writeSigned(value);
+		recorded();
+	}
+
+	@Override
+	public List<Deliverable> extractFromDeliveryChute(int vmIndex) throws IndexOutOfBoundsException {
+		List<Deliverable> ret = factory.extractFromDeliveryChute(vmIndex);
+		pending.writeLong(EXTRACT);
+		writeSigned(vmIndex);
+		recorded();
+		return ret;
+	}
+
+	@Override
+	public List<List<?>> unloadVendingMachine(int vmIndex) throws IndexOutOfBoundsException {
+		List<List<?>> ret = factory.unloadVendingMachine(vmIndex);
+		pending.writeLong(UNLOAD);
+		writeSigned(vmIndex);
+		recorded();
+		return ret;
+	}
+}
@@ -0,0 +1,119 @@
+package seng301.assn1;
+
+/**
+ * Counts latencies, in nanoseconds, in buckets whose width grows with the
+ * latency, so any value up to {@link Long#MAX_VALUE} is recorded in constant
+ * time and space with a relative error under 1/16. Not thread safe: record
+ * into one histogram per thread and {@link #add(LatencyHistogram)} them
+ * together afterwards.
+ */
+public class LatencyHistogram {
+	/**
+	 * Each power of two is split into 2^SUB_BUCKET_BITS buckets
+	 */
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private long[] counts;
+	private long count;
+	private long total;
+	private long max;
+
+	/**
+	 * Basic Constructor
+	 */
+	public LatencyHistogram() {
+		counts = new long[BUCKETS];
+	}
+
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return the largest value counted in the given bucket
+	 */
+	private static long highestIn(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		if (bucket == BUCKETS - 1) {
+			return Long.MAX_VALUE;
+		}
+		int next = bucket + 1;
+		int exponent = next / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		return ((long) (SUB_BUCKETS + next % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * Counts one latency; negative values are counted as 0
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts[bucketOf(nanos)]++;
+		count++;
+		total += nanos;
+		if (nanos > max) {
+			max = nanos;
+		}
+	}
+
+	/**
+	 * Adds every latency counted by another histogram to this one
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		total += other.total;
+		max = Math.max(max, other.max);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @return the mean latency, or 0 if nothing was counted
+	 */
+	public double getMean() {
+		return count == 0 ? 0 : (double) total / count;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return a latency no lower than the given percentile of those counted,
+	 *         and no more than 1/16 higher; 0 if nothing was counted
+	 */
+	public long getPercentile(double percentile) throws IllegalArgumentException {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("percentile must be between 0 and 100");
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestIn(i), max);
+			}
+		}
+		return max;
+	}
+}
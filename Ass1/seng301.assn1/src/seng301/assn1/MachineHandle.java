@@ -0,0 +1,230 @@
+package seng301.assn1;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.lsmr.vending.frontend1.Coin;
+import org.lsmr.vending.frontend1.Deliverable;
+import org.lsmr.vending.frontend1.IVendingMachineFactory;
+import org.lsmr.vending.frontend1.Pop;
+
+/**
+ * A reference to one vending machine of a {@link VendingMachineFactory},
+ * offering the operations of {@link IVendingMachineFactory} without a machine
+ * index. The handle remembers the machine it last used, so operations skip
+ * the index check and list lookup; it only looks the machine up again after
+ * the factory has taken a snapshot or been restored.
+ */
+public class MachineHandle {
+	private VendingMachineFactory factory;
+	private int index;
+	private VendingMachine machine;
+	private int generation;
+
+	/**
+	 * Basic Constructor
+	 */
+	MachineHandle(VendingMachineFactory factory, int index) {
+		this.factory = factory;
+		this.index = index;
+		generation = -1;
+	}
+
+	/**
+	 * @return the machine this handle refers to, as the factory currently
+	 *         holds it
+	 * @throws IndexOutOfBoundsException
+	 *             if the factory was restored to a state without the machine
+	 */
+	private VendingMachine machine() throws IndexOutOfBoundsException {
+		if (generation != factory.getGeneration()) {
+			machine = factory.resolve(index);
+			generation = factory.getGeneration();
+		}
+		return machine;
+	}
+
+	/**
+	 * Drops the remembered machine, so that it can be reclaimed
+	 */
+	void release() {
+		machine = null;
+		generation = -1;
+	}
+
+	/**
+	 * @return the index of the machine in its factory
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Gives direct access to the vending machine, for operations not covered
+	 * by {@link IVendingMachineFactory}
+	 */
+	public VendingMachine getVendingMachine() throws IndexOutOfBoundsException {
+		return machine();
+	}
+
+	/**
+	 * @see IVendingMachineFactory#configureVendingMachine(int, List, List)
+	 */
+	public void configure(List<String> popNames, List<Integer> popCosts)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		VendingMachine machine = machine();
+		if (popNames == null || popCosts == null) {
+			throw new IllegalArgumentException("arguments may not be null");
+		}
+		if (popNames.size() != machine.getSelectionButtonCount()
+				|| popCosts.size() != machine.getSelectionButtonCount()) {
+			throw new IllegalArgumentException("data lists do not match the number of buttons constructed");
+		}
+		Iterator<String> itN = popNames.iterator();
+		Iterator<Integer> itC = popCosts.iterator();
+		for (int i = 0; itN.hasNext() && itC.hasNext(); i++) {
+			machine.setButton(i, itN.next(), itC.next());
+		}
+	}
+
+	/**
+	 * @see IVendingMachineFactory#loadCoins(int, int, Coin...)
+	 */
+	public void loadCoins(int coinKindIndex, Coin... coins)
+			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
+		VendingMachine machine = machine();
+		if (coinKindIndex < 0 || coinKindIndex > machine.getCoinTypeCount() - 1) {
+			throw new IndexOutOfBoundsException("the coinKindIndex is out of bounds");
+		}
+		if (coins == null) {
+			throw new NullPointerException("coin array cannot be null");
+		}
+		for (int i = 0; i < coins.length; i++) {
+			if (coins[i] == null) {
+				throw new NullPointerException("coin cannot be null");
+			}
+		}
+		// hand identical neighbouring coins over as a single run
+		int start = 0;
+		for (int i = 1; i <= coins.length; i++) {
+			if (i == coins.length || coins[i].getValue() != coins[start].getValue()) {
+				machine.addCoins(coinKindIndex, coins[start].getValue(), i - start);
+				start = i;
+			}
+		}
+	}
+
+	/**
+	 * @see IVendingMachineFactory#loadPops(int, int, Pop...)
+	 */
+	public void loadPops(int popKindIndex, Pop... pops)
+			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
+		VendingMachine machine = machine();
+		if (popKindIndex < 0 || popKindIndex > machine.getSelectionButtonCount() - 1) {
+			throw new IndexOutOfBoundsException("the selected pop kind does not exist");
+		}
+		if (pops == null) {
+			throw new NullPointerException("pop array cannot be null");
+		}
+		for (int i = 0; i < pops.length; i++) {
+			if (pops[i] == null) {
+				throw new NullPointerException("pop cannot be null");
+			}
+		}
+		// hand identical neighbouring pops over as a single run
+		int start = 0;
+		for (int i = 1; i <= pops.length; i++) {
+			if (i == pops.length || !pops[i].getName().equals(pops[start].getName())) {
+				machine.addPops(popKindIndex, pops[start].getName(), i - start);
+				start = i;
+			}
+		}
+	}
+
+	/**
+	 * Loads count coins of the given value in time independent of count
+	 *
+	 * @see IVendingMachineFactory#loadCoins(int, int, int, long)
+	 */
+	public void loadCoins(int coinKindIndex, int value, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		VendingMachine machine = machine();
+		if (coinKindIndex < 0 || coinKindIndex > machine.getCoinTypeCount() - 1) {
+			throw new IndexOutOfBoundsException("the coinKindIndex is out of bounds");
+		}
+		if (VendingMachine.checkCoinLoad(count)) {
+			machine.addCoins(coinKindIndex, value, count);
+		}
+	}
+
+	/**
+	 * Loads count pops of the given brand in time independent of count
+	 *
+	 * @see IVendingMachineFactory#loadPops(int, int, String, long)
+	 */
+	public void loadPops(int popKindIndex, String name, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		VendingMachine machine = machine();
+		if (popKindIndex < 0 || popKindIndex > machine.getSelectionButtonCount() - 1) {
+			throw new IndexOutOfBoundsException("the selected pop kind does not exist");
+		}
+		if (VendingMachine.checkPopLoad(name, count)) {
+			machine.addPops(popKindIndex, name, count);
+		}
+	}
+
+	/**
+	 * @see IVendingMachineFactory#insertCoin(int, Coin)
+	 */
+	public void insertCoin(Coin coin) throws IndexOutOfBoundsException, NullPointerException {
+		VendingMachine machine = machine();
+		if (coin == null) {
+			throw new NullPointerException("coin cannot be null");
+		}
+		machine.putCoin(coin);
+	}
+
+	/**
+	 * @see IVendingMachineFactory#pressButton(int, int)
+	 */
+	public void pressButton(int value) throws IndexOutOfBoundsException {
+		VendingMachine machine = machine();
+		if (value < 0 || value > machine.getSelectionButtonCount() - 1) {
+			throw new IndexOutOfBoundsException("the button does not exist");
+		}
+		machine.purchase(value);
+	}
+
+	/**
+	 * @see IVendingMachineFactory#extractFromDeliveryChute(int)
+	 */
+	public List<Deliverable> extractFromDeliveryChute() throws IndexOutOfBoundsException {
+		return machine().drainChute();
+	}
+
+	/**
+	 * Empties the delivery chute without creating any Coin or Pop objects,
+	 * adding the value of the coins and the number of pops of each brand to
+	 * the summary
+	 */
+	public void extractSummaryFromDeliveryChute(ChuteSummary summary) throws IndexOutOfBoundsException {
+		machine().drainSummary(summary);
+	}
+
+	/**
+	 * @see IVendingMachineFactory#unloadVendingMachine(int)
+	 */
+	public List<List<?>> unload() throws IndexOutOfBoundsException {
+		VendingMachine machine = machine();
+		List<List<?>> ret = new ArrayList<List<?>>();
+		RunQueue change = new RunQueue();
+		machine.unloadCoins(Bank.CHANGE, change);
+		ret.add(new CoinList(change));
+		RunQueue payment = new RunQueue();
+		machine.unloadCoins(Bank.PAYMENT, payment);
+		ret.add(new CoinList(payment));
+		ret.add(machine.unloadPops());
+		return ret;
+	}
+}
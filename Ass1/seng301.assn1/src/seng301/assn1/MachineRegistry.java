@@ -0,0 +1,84 @@
+package seng301.assn1;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent, append-only list of machines indexed from 0. Indexes are
+ * handed out with a single atomic increment, storage grows by adding segments
+ * of doubling size (nothing is ever copied), and lookups are plain volatile
+ * reads, so any number of threads can add and look up machines at once.
+ */
+public class MachineRegistry<T> {
+	/**
+	 * The first segment holds 2^FIRST_SEGMENT_BITS machines; each following
+	 * segment holds twice as many as the one before
+	 */
+	private static final int FIRST_SEGMENT_BITS = 6;
+	private static final int SEGMENTS = 30 - FIRST_SEGMENT_BITS;
+
+	/**
+	 * The largest number of machines a registry can hold
+	 */
+	public static final int MAX_MACHINES = (1 << 30) - (1 << FIRST_SEGMENT_BITS);
+
+	private AtomicReferenceArray<AtomicReferenceArray<T>> segments;
+	private AtomicInteger next;
+
+	/**
+	 * Basic Constructor
+	 */
+	public MachineRegistry() {
+		segments = new AtomicReferenceArray<AtomicReferenceArray<T>>(SEGMENTS);
+		next = new AtomicInteger();
+	}
+
+	/**
+	 * Adds a machine at the next free index
+	 *
+	 * @return the index of the machine
+	 * @throws IllegalStateException
+	 *             if every index is in use
+	 */
+	public int add(T machine) throws IllegalStateException {
+		int index = next.getAndIncrement();
+		if (index >= MAX_MACHINES) {
+			next.set(MAX_MACHINES);
+			throw new IllegalStateException("too many machines");
+		}
+		int position = index + (1 << FIRST_SEGMENT_BITS);
+		int segment = 31 - Integer.numberOfLeadingZeros(position) - FIRST_SEGMENT_BITS;
+		AtomicReferenceArray<T> cur = segments.get(segment);
+		if (cur == null) {
+			segments.compareAndSet(segment, null,
+					new AtomicReferenceArray<T>(1 << (segment + FIRST_SEGMENT_BITS)));
+			cur = segments.get(segment);
+		}
+		cur.set(position - Integer.highestOneBit(position), machine);
+		return index;
+	}
+
+	/**
+	 * @return the machine at the given index, or null if no machine has been
+	 *         added there yet
+	 */
+	public T get(int index) {
+		if (index < 0 || index > size() - 1) {
+			return null;
+		}
+		int position = index + (1 << FIRST_SEGMENT_BITS);
+		AtomicReferenceArray<T> cur = segments.get(31 - Integer.numberOfLeadingZeros(position) - FIRST_SEGMENT_BITS);
+		if (cur == null) {
+			return null;
+		}
+		return cur.get(position - Integer.highestOneBit(position));
+	}
+
+	/**
+	 * @return the number of indexes handed out so far; a machine being added
+	 *         concurrently may not be visible through {@link #get(int)} yet
+	 */
+	public int size() {
+		return Math.min(next.get(), MAX_MACHINES);
+	}
+}
@@ -0,0 +1,536 @@
+package seng301.assn1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.lsmr.vending.frontend1.Coin;
+import org.lsmr.vending.frontend1.Deliverable;
+import org.lsmr.vending.frontend1.IVendingMachineFactory;
+import org.lsmr.vending.frontend1.Pop;
+
+/**
+ * A factory in which every vending machine owns a mailbox. Operations on a
+ * machine are queued as commands and carried out, in the order they were
+ * queued, by a single writer that drains the mailbox in batches. Because only
+ * that writer ever touches the machine, plain {@link VendingMachine}s are used
+ * without any locking, and throughput grows with the number of machines.
+ *
+ * <p>
+ * Each operation has an asynchronous form returning a future. Through
+ * {@link IVendingMachineFactory}, configuring and loading a machine wait for
+ * the command to be carried out, so bad setup data is reported where it is
+ * given. Inserting coins and pressing buttons only queue their command:
+ * arguments that can be checked without the machine's state are checked
+ * straight away, and any other failure is thrown by the next
+ * {@link IVendingMachineFactory} call on the same machine that finds it
+ * recorded. Extracting from the chute and unloading wait for their results,
+ * and so always report a failure that came before them. A failure that is
+ * reported where it happened, or through a future returned by an
+ * asynchronous form, is not thrown again.
+ *
+ * <p>
+ * Writers run on the executor given at construction; on Java 21 and later a
+ * virtual-thread-per-task executor gives each active mailbox its own virtual
+ * thread.
+ */
+public class MailboxVendingMachineFactory implements IVendingMachineFactory {
+	/**
+	 * Largest number of commands a writer carries out before giving other
+	 * mailboxes a turn
+	 */
+	public static final int BATCH_SIZE = 256;
+
+	private MachineRegistry<Mailbox> machines;
+	private Executor executor;
+
+	/**
+	 * An operation waiting in a mailbox
+	 */
+	private static abstract class Command<T> {
+		private CompletableFuture<T> result = new CompletableFuture<T>();
+
+		/**
+		 * Whether nobody waits for the result, so that a failure has to be
+		 * recorded for a later call to throw
+		 */
+		private boolean detached;
+
+		protected abstract T execute(VendingMachine machine);
+	}
+
+	/**
+	 * The commands queued for one machine, and the machine itself
+	 */
+	private static class Mailbox implements Runnable {
+		private VendingMachine machine;
+		private Executor executor;
+		private ConcurrentLinkedQueue<Command<?>> commands;
+		private AtomicBoolean scheduled;
+		private AtomicReference<RuntimeException> failure;
+
+		public Mailbox(VendingMachine machine, Executor executor) {
+			this.machine = machine;
+			this.executor = executor;
+			commands = new ConcurrentLinkedQueue<Command<?>>();
+			scheduled = new AtomicBoolean();
+			failure = new AtomicReference<RuntimeException>();
+		}
+
+		public <T> CompletableFuture<T> submit(Command<T> command) {
+			commands.add(command);
+			if (scheduled.compareAndSet(false, true)) {
+				schedule(command);
+			}
+			return command.result;
+		}
+
+		/**
+		 * Hands the mailbox to the executor. If the executor rejects it,
+		 * nothing would ever run the queued commands, so they all fail with
+		 * the rejection, which is recorded for the detached ones and thrown.
+		 * 
+		 * @param submitted
+		 *            the command whose submission schedules the mailbox, whose
+		 *            caller gets the rejection thrown, or null
+		 */
+		private void schedule(Command<?> submitted) {
+			try {
+				executor.execute(this);
+			} catch (RuntimeException e) {
+				scheduled.set(false);
+				for (Command<?> cur; (cur = commands.poll()) != null;) {
+					if (cur.detached && cur != submitted) {
+						failure.compareAndSet(null, e);
+					}
+					cur.result.completeExceptionally(e);
+				}
+				throw e;
+			}
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				Command<?> command = commands.poll();
+				if (command == null) {
+					break;
+				}
+				execute(command);
+			}
+			scheduled.set(false);
+			// a command queued after the last poll would otherwise be stranded
+			if (!commands.isEmpty() && scheduled.compareAndSet(false, true)) {
+				schedule(null);
+			}
+		}
+
+		private <T> void execute(Command<T> command) {
+			try {
+				command.result.complete(command.execute(machine));
+			} catch (RuntimeException e) {
+				if (command.detached) {
+					failure.compareAndSet(null, e);
+				}
+				command.result.completeExceptionally(e);
+			}
+		}
+
+		/**
+		 * Throws, once, the first failure of a command queued by
+		 * {@link MailboxVendingMachineFactory#insertCoin(int, Coin)} or
+		 * {@link MailboxVendingMachineFactory#pressButton(int, int)}, which
+		 * nobody waits for
+		 */
+		public void checkFailure() {
+			RuntimeException cur = failure.getAndSet(null);
+			if (cur != null) {
+				throw cur;
+			}
+		}
+	}
+
+	/**
+	 * Basic constructor. Writers run on a shared pool with one thread per
+	 * processor.
+	 */
+	public MailboxVendingMachineFactory() {
+		this(defaultExecutor());
+	}
+
+	/**
+	 * Creates a factory whose writers run on the given executor
+	 */
+	public MailboxVendingMachineFactory(Executor executor) throws IllegalArgumentException {
+		if (executor == null) {
+			throw new IllegalArgumentException("arguments may not be null");
+		}
+		this.executor = executor;
+		machines = new MachineRegistry<Mailbox>();
+	}
+
+	private static Executor defaultExecutor() {
+		return DefaultExecutor.POOL;
+	}
+
+	/**
+	 * Holds the pool shared by every factory built without an executor, which
+	 * is created the first time one is built. Its threads are daemons, so it
+	 * is never shut down.
+	 */
+	private static class DefaultExecutor {
+		private static final ExecutorService POOL = Executors
+				.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable task) {
+						Thread ret = new Thread(task, "vending-machine-mailbox");
+						ret.setDaemon(true);
+						return ret;
+					}
+				});
+	}
+
+	private Mailbox getMailbox(int vmIndex) throws IndexOutOfBoundsException {
+		Mailbox ret = machines.get(vmIndex);
+		if (ret == null) {
+			throw new IndexOutOfBoundsException("the selected vending machine is not yet constructed");
+		}
+		return ret;
+	}
+
+	/**
+	 * Waits for a result, rethrowing the failure of the command as is
+	 */
+	private static <T> T await(CompletableFuture<T> result) {
+		try {
+			return result.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public int constructNewVendingMachine(List<Integer> coinKinds, int selectionButtonCount)
+			throws IllegalArgumentException, IllegalStateException {
+		return machines.add(new Mailbox(new VendingMachine(coinKinds, selectionButtonCount), executor));
+	}
+
+	/**
+	 * Queues the configuration of a vending machine
+	 *
+	 * @see IVendingMachineFactory#configureVendingMachine(int, List, List)
+	 */
+	public CompletableFuture<Void> configureVendingMachineAsync(int vmIndex, final List<String> popNames,
+			final List<Integer> popCosts) throws IndexOutOfBoundsException, IllegalArgumentException {
+		Mailbox mailbox = getMailbox(vmIndex);
+		if (popNames == null || popCosts == null) {
+			throw new IllegalArgumentException("arguments may not be null");
+		}
+		if (popNames.size() != mailbox.machine.getSelectionButtonCount()
+				|| popCosts.size() != mailbox.machine.getSelectionButtonCount()) {
+			throw new IllegalArgumentException("data lists do not match the number of buttons constructed");
+		}
+		final List<String> names = new ArrayList<String>(popNames);
+		final List<Integer> costs = new ArrayList<Integer>(popCosts);
+		return mailbox.submit(new Command<Void>() {
+			@Override
+			protected Void execute(VendingMachine machine) {
+				for (int i = 0; i < names.size(); i++) {
+					machine.setButton(i, names.get(i), costs.get(i));
+				}
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void configureVendingMachine(int vmIndex, List<String> popNames, List<Integer> popCosts)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		getMailbox(vmIndex).checkFailure();
+		await(configureVendingMachineAsync(vmIndex, popNames, popCosts));
+	}
+
+	/**
+	 * Queues the loading of coins into a vending machine
+	 *
+	 * @see IVendingMachineFactory#loadCoins(int, int, Coin...)
+	 */
+	public CompletableFuture<Void> loadCoinsAsync(int vmIndex, final int coinKindIndex, Coin... coins)
+			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
+		Mailbox mailbox = getMailbox(vmIndex);
+		if (coinKindIndex < 0 || coinKindIndex > mailbox.machine.getCoinTypeCount() - 1) {
+			throw new IndexOutOfBoundsException("the coinKindIndex is out of bounds");
+		}
+		if (coins == null) {
+			throw new NullPointerException("coin array cannot be null");
+		}
+		for (int i = 0; i < coins.length; i++) {
+			if (coins[i] == null) {
+				throw new NullPointerException("coin cannot be null");
+			}
+		}
+		final Coin[] loaded = coins.clone();
+		return mailbox.submit(new Command<Void>() {
+			@Override
+			protected Void execute(VendingMachine machine) {
+				// hand identical neighbouring coins over as a single run
+				int start = 0;
+				for (int i = 1; i <= loaded.length; i++) {
+					if (i == loaded.length || loaded[i].getValue() != loaded[start].getValue()) {
+						machine.addCoins(coinKindIndex, loaded[start].getValue(), i - start);
+						start = i;
+					}
+				}
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void loadCoins(int vmIndex, int coinKindIndex, Coin... coins)
+			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
+		getMailbox(vmIndex).checkFailure();
+		await(loadCoinsAsync(vmIndex, coinKindIndex, coins));
+	}
+
+	/**
+	 * Queues the loading of pops into a vending machine
+	 *
+	 * @see IVendingMachineFactory#loadPops(int, int, Pop...)
+	 */
+	public CompletableFuture<Void> loadPopsAsync(int vmIndex, final int popKindIndex, Pop... pops)
+			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
+		Mailbox mailbox = getMailbox(vmIndex);
+		if (popKindIndex < 0 || popKindIndex > mailbox.machine.getSelectionButtonCount() - 1) {
+			throw new IndexOutOfBoundsException("the selected pop kind does not exist");
+		}
+		if (pops == null) {
+			throw new NullPointerException("pop array cannot be null");
+		}
+		for (int i = 0; i < pops.length; i++) {
+			if (pops[i] == null) {
+				throw new NullPointerException("pop cannot be null");
+			}
+		}
+		final Pop[] loaded = pops.clone();
+		return mailbox.submit(new Command<Void>() {
+			@Override
+			protected Void execute(VendingMachine machine) {
+				// hand identical neighbouring pops over as a single run
+				int start = 0;
+				for (int i = 1; i <= loaded.length; i++) {
+					if (i == loaded.length || !loaded[i].getName().equals(loaded[start].getName())) {
+						machine.addPops(popKindIndex, loaded[start].getName(), i - start);
+						start = i;
+					}
+				}
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void loadPops(int vmIndex, int popKindIndex, Pop... pops)
+			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
+		getMailbox(vmIndex).checkFailure();
+		await(loadPopsAsync(vmIndex, popKindIndex, pops));
+	}
+
+	/**
+	 * Queues the loading of count coins of the given value into a vending
+	 * machine, which takes time independent of count
+	 *
+	 * @see IVendingMachineFactory#loadCoins(int, int, int, long)
+	 */
+	public CompletableFuture<Void> loadCoinsAsync(int vmIndex, final int coinKindIndex, final int value,
+			final long count) throws IndexOutOfBoundsException, IllegalArgumentException {
+		Mailbox mailbox = getMailbox(vmIndex);
+		if (coinKindIndex < 0 || coinKindIndex > mailbox.machine.getCoinTypeCount() - 1) {
+			throw new IndexOutOfBoundsException("the coinKindIndex is out of bounds");
+		}
+		VendingMachine.checkCoinLoad(count);
+		return mailbox.submit(new Command<Void>() {
+			@Override
+			protected Void execute(VendingMachine machine) {
+				if (count > 0) {
+					machine.addCoins(coinKindIndex, value, count);
+				}
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void loadCoins(int vmIndex, int coinKindIndex, int value, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		getMailbox(vmIndex).checkFailure();
+		await(loadCoinsAsync(vmIndex, coinKindIndex, value, count));
+	}
+
+	/**
+	 * Queues the loading of count pops of the given brand into a vending
+	 * machine, which takes time independent of count
+	 *
+	 * @see IVendingMachineFactory#loadPops(int, int, String, long)
+	 */
+	public CompletableFuture<Void> loadPopsAsync(int vmIndex, final int popKindIndex, final String name,
+			final long count) throws IndexOutOfBoundsException, IllegalArgumentException {
+		Mailbox mailbox = getMailbox(vmIndex);
+		if (popKindIndex < 0 || popKindIndex > mailbox.machine.getSelectionButtonCount() - 1) {
+			throw new IndexOutOfBoundsException("the selected pop kind does not exist");
+		}
+		VendingMachine.checkPopLoad(name, count);
+		return mailbox.submit(new Command<Void>() {
+			@Override
+			protected Void execute(VendingMachine machine) {
+				if (count > 0) {
+					machine.addPops(popKindIndex, name, count);
+				}
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void loadPops(int vmIndex, int popKindIndex, String name, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		getMailbox(vmIndex).checkFailure();
+		await(loadPopsAsync(vmIndex, popKindIndex, name, count));
+	}
+
+	/**
+	 * Queues the insertion of a coin into a vending machine
+	 *
+	 * @see IVendingMachineFactory#insertCoin(int, Coin)
+	 */
+	public CompletableFuture<Void> insertCoinAsync(int vmIndex, Coin coin)
+			throws IndexOutOfBoundsException, NullPointerException {
+		return queueInsertCoin(vmIndex, coin, false);
+	}
+
+	private CompletableFuture<Void> queueInsertCoin(int vmIndex, final Coin coin, boolean detached)
+			throws IndexOutOfBoundsException, NullPointerException {
+		Mailbox mailbox = getMailbox(vmIndex);
+		if (coin == null) {
+			throw new NullPointerException("coin cannot be null");
+		}
+		Command<Void> command = new Command<Void>() {
+			@Override
+			protected Void execute(VendingMachine machine) {
+				machine.putCoin(coin);
+				return null;
+			}
+		};
+		command.detached = detached;
+		return mailbox.submit(command);
+	}
+
+	@Override
+	public void insertCoin(int vmIndex, Coin coin) throws IndexOutOfBoundsException, NullPointerException {
+		getMailbox(vmIndex).checkFailure();
+		queueInsertCoin(vmIndex, coin, true);
+	}
+
+	/**
+	 * Queues the press of a selection button of a vending machine
+	 *
+	 * @see IVendingMachineFactory#pressButton(int, int)
+	 */
+	public CompletableFuture<Void> pressButtonAsync(int vmIndex, int value) throws IndexOutOfBoundsException {
+		return queuePressButton(vmIndex, value, false);
+	}
+
+	private CompletableFuture<Void> queuePressButton(int vmIndex, final int value, boolean detached)
+			throws IndexOutOfBoundsException {
+		Mailbox mailbox = getMailbox(vmIndex);
+		if (value < 0 || value > mailbox.machine.getSelectionButtonCount() - 1) {
+			throw new IndexOutOfBoundsException("the button does not exist");
+		}
+		Command<Void> command = new Command<Void>() {
+			@Override
+			protected Void execute(VendingMachine machine) {
+				machine.purchase(value);
+				return null;
+			}
+		};
+		command.detached = detached;
+		return mailbox.submit(command);
+	}
+
+	@Override
+	public void pressButton(int vmIndex, int value) throws IndexOutOfBoundsException {
+		getMailbox(vmIndex).checkFailure();
+		queuePressButton(vmIndex, value, true);
+	}
+
+	/**
+	 * Queues the removal of everything in the delivery chute of a vending
+	 * machine
+	 *
+	 * @return the contents of the chute once every command queued before this
+	 *         one has been carried out
+	 * @see IVendingMachineFactory#extractFromDeliveryChute(int)
+	 */
+	public CompletableFuture<List<Deliverable>> extractFromDeliveryChuteAsync(int vmIndex)
+			throws IndexOutOfBoundsException {
+		return getMailbox(vmIndex).submit(new Command<List<Deliverable>>() {
+			@Override
+			protected List<Deliverable> execute(VendingMachine machine) {
+				return machine.drainChute();
+			}
+		});
+	}
+
+	@Override
+	public List<Deliverable> extractFromDeliveryChute(int vmIndex) throws IndexOutOfBoundsException {
+		Mailbox mailbox = getMailbox(vmIndex);
+		mailbox.checkFailure();
+		List<Deliverable> ret = await(extractFromDeliveryChuteAsync(vmIndex));
+		mailbox.checkFailure();
+		return ret;
+	}
+
+	/**
+	 * Queues the unloading of a vending machine
+	 *
+	 * @return the unloaded coins and pops, as described by
+	 *         {@link IVendingMachineFactory#unloadVendingMachine(int)}, once
+	 *         every command queued before this one has been carried out
+	 */
+	public CompletableFuture<List<List<?>>> unloadVendingMachineAsync(int vmIndex) throws IndexOutOfBoundsException {
+		return getMailbox(vmIndex).submit(new Command<List<List<?>>>() {
+			@Override
+			protected List<List<?>> execute(VendingMachine machine) {
+				List<List<?>> ret = new ArrayList<List<?>>();
+				RunQueue change = new RunQueue();
+				machine.unloadCoins(Bank.CHANGE, change);
+				ret.add(new CoinList(change));
+				RunQueue payment = new RunQueue();
+				machine.unloadCoins(Bank.PAYMENT, payment);
+				ret.add(new CoinList(payment));
+				ret.add(machine.unloadPops());
+				return ret;
+			}
+		});
+	}
+
+	@Override
+	public List<List<?>> unloadVendingMachine(int vmIndex) throws IndexOutOfBoundsException {
+		Mailbox mailbox = getMailbox(vmIndex);
+		mailbox.checkFailure();
+		List<List<?>> ret = await(unloadVendingMachineAsync(vmIndex));
+		mailbox.checkFailure();
+		return ret;
+	}
+}
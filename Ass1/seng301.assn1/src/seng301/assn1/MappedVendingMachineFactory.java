@@ -0,0 +1,582 @@
+package seng301.assn1;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.lsmr.vending.frontend1.Coin;
+import org.lsmr.vending.frontend1.Deliverable;
+import org.lsmr.vending.frontend1.IVendingMachineFactory;
+import org.lsmr.vending.frontend1.Pop;
+
+/**
+ * A factory whose vending machines live entirely in a memory-mapped file, one
+ * fixed-size record per machine, addressed by the machine index. Nothing is
+ * kept on the heap per machine, so fleets of any size cost the garbage
+ * collector nothing; opening an existing file brings every machine back at
+ * once, with no deserialization.
+ *
+ * <p>
+ * A fixed layout means fixed limits, set when the file is created: the number
+ * of coin kinds and buttons a machine may have, and the number of brands the
+ * file can name. It also means coins and pops are kept as counts rather than
+ * as sequences, with these differences from {@link VendingMachineFactory}:
+ * <ul>
+ * <li>coins loaded under a coin kind must have that kind's value;</li>
+ * <li>a pop rack holds one brand at a time;</li>
+ * <li>the delivery chute keeps change and pops grouped by kind and brand, and
+ * holds coins of up to {@link #REJECTED_VALUES} values that the machine did
+ * not accept, and pops of up to as many brands as the machine has
+ * buttons.</li>
+ * </ul>
+ * Like {@link VendingMachineFactory}, the factory is not thread safe.
+ *
+ * <p>
+ * Record layout, after a header holding the limits, the machine count and the
+ * brand names (all numbers little-endian):
+ *
+ * <pre>
+ * int  coin kind count, int button count, long credit
+ * int  coin values[kinds], padded to 8 bytes
+ * long banks[Bank.COUNT][kinds], by bank ordinal
+ * long chute change[kinds]
+ * per button:         int cost (0 if unconfigured), int name brand,
+ *                     int rack brand, int unused, long rack count
+ * per button:         int brand, int unused, long count (pops in the chute)
+ * per rejected value: int value, int unused, long count (coins in the chute)
+ * </pre>
+ */
+public class MappedVendingMachineFactory implements IVendingMachineFactory, Closeable {
+	/**
+	 * The number of distinct unaccepted coin values the chute of a machine can
+	 * hold at once
+	 */
+	public static final int REJECTED_VALUES = 4;
+
+	/**
+	 * The number of brands a file can name, and the longest name, in bytes
+	 */
+	public static final int BRAND_CAPACITY = 1024;
+	public static final int MAX_BRAND_BYTES = 62;
+
+	private static final int MAGIC = 0x564D4631;
+	private static final int VERSION = 1;
+	private static final int BRAND_ENTRY = MAX_BRAND_BYTES + 2;
+	private static final int BRANDS = 32;
+	private static final int HEADER_SIZE = (BRANDS + BRAND_CAPACITY * BRAND_ENTRY + 4095) & ~4095;
+	private static final int CHUNK_BITS = 14;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private MappedByteBuffer header;
+	private ArrayList<MappedByteBuffer> chunks;
+
+	private int maxKinds;
+	private int maxButtons;
+	private int recordSize;
+	private int machineCount;
+
+	private int values;
+	private int banks;
+	private int buttons;
+	private int chutePops;
+	private int rejected;
+
+	/**
+	 * File brand ids to and from {@link Brands} ids
+	 */
+	private int[] brandIds;
+	private HashMap<Integer, Integer> fileBrands;
+
+	/**
+	 * The coin systems in use, each with its change maker and scratch arrays
+	 */
+	private ArrayList<CoinSystem> systems;
+	private ArrayList<ChangeMaker> changeMakers;
+	private ArrayList<long[][]> scratch;
+
+	/**
+	 * Opens the machines kept in a file, or starts a new file if it is empty
+	 * or missing.
+	 *
+	 * @param maxCoinKinds
+	 *            The most coin kinds a machine in a new file may have.
+	 * @param maxButtons
+	 *            The most selection buttons a machine in a new file may have.
+	 * @throws IllegalArgumentException
+	 *             If a limit is not positive, if the limits make a
+	 *             machine's record too large for a chunk of machines to be
+	 *             mapped at once, or if an existing file was created with
+	 *             other limits or is not a machine file.
+	 * @throws UncheckedIOException
+	 *             If the file cannot be opened or mapped.
+	 */
+	public MappedVendingMachineFactory(File path, int maxCoinKinds, int maxButtons)
+			throws IllegalArgumentException, UncheckedIOException {
+		if (maxCoinKinds <= 0 || maxButtons <= 0) {
+			throw new IllegalArgumentException("limits must be positive");
+		}
+		// a chunk of records is mapped as one buffer, so must stay under 2 GB
+		long size = 16 + ((maxCoinKinds * 4L + 7) & ~7) + (Bank.COUNT + 1) * 8L * maxCoinKinds + 40L * maxButtons
+				+ 16 * REJECTED_VALUES;
+		if (size << CHUNK_BITS > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("limits are too large to map");
+		}
+		this.maxKinds = maxCoinKinds;
+		this.maxButtons = maxButtons;
+		values = 16;
+		banks = values + ((maxKinds * 4 + 7) & ~7);
+		buttons = banks + (Bank.COUNT + 1) * 8 * maxKinds;
+		chutePops = buttons + 24 * maxButtons;
+		rejected = chutePops + 16 * maxButtons;
+		recordSize = rejected + 16 * REJECTED_VALUES;
+		chunks = new ArrayList<MappedByteBuffer>();
+		systems = new ArrayList<CoinSystem>();
+		changeMakers = new ArrayList<ChangeMaker>();
+		scratch = new ArrayList<long[][]>();
+		try {
+			file = new RandomAccessFile(path, "rw");
+			channel = file.getChannel();
+			boolean created = channel.size() == 0;
+			header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			if (created) {
+				header.putInt(0, MAGIC);
+				header.putInt(4, VERSION);
+				header.putInt(8, maxKinds);
+				header.putInt(12, maxButtons);
+				header.putInt(16, recordSize);
+				header.putInt(20, 0);
+				header.putInt(24, 0);
+			} else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				file.close();
+				throw new IllegalArgumentException("the file does not hold vending machines");
+			} else if (header.getInt(8) != maxKinds || header.getInt(12) != maxButtons
+					|| header.getInt(16) != recordSize) {
+				file.close();
+				throw new IllegalArgumentException("the file was created with other limits");
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		machineCount = header.getInt(24);
+		int brandCount = header.getInt(20);
+		brandIds = new int[BRAND_CAPACITY];
+		fileBrands = new HashMap<Integer, Integer>();
+		for (int i = 0; i < brandCount; i++) {
+			int entry = BRANDS + i * BRAND_ENTRY;
+			byte[] name = new byte[header.getShort(entry)];
+			for (int j = 0; j < name.length; j++) {
+				name[j] = header.get(entry + 2 + j);
+			}
+			brandIds[i] = Brands.intern(new String(name, StandardCharsets.UTF_8));
+			fileBrands.put(brandIds[i], i);
+		}
+	}
+
+	/**
+	 * @return the file id of a brand, naming it in the file if it is new
+	 */
+	private int fileBrand(String name) throws IllegalStateException, IllegalArgumentException {
+		int id = Brands.intern(name);
+		Integer ret = fileBrands.get(id);
+		if (ret != null) {
+			return ret;
+		}
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_BRAND_BYTES) {
+			throw new IllegalArgumentException("pop name is too long to store");
+		}
+		int count = header.getInt(20);
+		if (count == BRAND_CAPACITY) {
+			throw new IllegalStateException("too many brands");
+		}
+		int entry = BRANDS + count * BRAND_ENTRY;
+		header.putShort(entry, (short) bytes.length);
+		for (int j = 0; j < bytes.length; j++) {
+			header.put(entry + 2 + j, bytes[j]);
+		}
+		header.putInt(20, count + 1);
+		brandIds[count] = id;
+		fileBrands.put(id, count);
+		return count;
+	}
+
+	/**
+	 * @return the buffer holding a machine's record; the record starts at
+	 *         {@link #base(int)}
+	 */
+	private MappedByteBuffer chunk(int vmIndex) throws UncheckedIOException {
+		int chunk = vmIndex >>> CHUNK_BITS;
+		while (chunks.size() <= chunk) {
+			long size = (long) recordSize << CHUNK_BITS;
+			try {
+				MappedByteBuffer cur = channel.map(FileChannel.MapMode.READ_WRITE,
+						HEADER_SIZE + chunks.size() * size, size);
+				cur.order(ByteOrder.LITTLE_ENDIAN);
+				chunks.add(cur);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return chunks.get(chunk);
+	}
+
+	private int base(int vmIndex) {
+		return (vmIndex & ((1 << CHUNK_BITS) - 1)) * recordSize;
+	}
+
+	private void checkMachine(int vmIndex) throws IndexOutOfBoundsException {
+		if (vmIndex < 0 || vmIndex > machineCount - 1) {
+			throw new IndexOutOfBoundsException("the selected vending machine is not yet constructed");
+		}
+	}
+
+	/**
+	 * @return the index in {@link #systems} of the coin system of a record
+	 */
+	private int system(MappedByteBuffer buffer, int base) {
+		int kinds = buffer.getInt(base);
+		for (int s = 0; s < systems.size(); s++) {
+			CoinSystem cur = systems.get(s);
+			if (cur.getKindCount() != kinds) {
+				continue;
+			}
+			int i = 0;
+			while (i < kinds && cur.getValue(i) == buffer.getInt(base + values + 4 * i)) {
+				i++;
+			}
+			if (i == kinds) {
+				return s;
+			}
+		}
+		int[] coinKinds = new int[kinds];
+		for (int i = 0; i < kinds; i++) {
+			coinKinds[i] = buffer.getInt(base + values + 4 * i);
+		}
+		CoinSystem cur = CoinSystem.forKinds(coinKinds);
+		systems.add(cur);
+		changeMakers.add(cur.createChangeMaker());
+		scratch.add(new long[][] { new long[kinds], new long[kinds] });
+		return systems.size() - 1;
+	}
+
+	/**
+	 * @return the number of vending machines in the file
+	 */
+	public int getVendingMachineCount() {
+		return machineCount;
+	}
+
+	/**
+	 * Writes every change to the file
+	 */
+	public void force() {
+		header.force();
+		for (MappedByteBuffer chunk : chunks) {
+			chunk.force();
+		}
+	}
+
+	/**
+	 * Writes every change to the file and closes it. The factory cannot be
+	 * used afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		force();
+		chunks.clear();
+		file.close();
+	}
+
+	@Override
+	public int constructNewVendingMachine(List<Integer> coinKinds, int selectionButtonCount)
+			throws IllegalArgumentException, IllegalStateException {
+		int[] kinds = new int[coinKinds.size()];
+		for (int i = 0; i < kinds.length; i++) {
+			kinds[i] = coinKinds.get(i);
+		}
+		CoinSystem.forKinds(kinds);
+		if (selectionButtonCount < 0) {
+			throw new IllegalArgumentException("selectionButtonCount cannot be less than 0");
+		}
+		if (kinds.length > maxKinds || selectionButtonCount > maxButtons) {
+			throw new IllegalArgumentException("the machine does not fit the limits of the file");
+		}
+		if (machineCount == Integer.MAX_VALUE) {
+			throw new IllegalStateException("too many machines");
+		}
+		int vmIndex = machineCount;
+		MappedByteBuffer buffer = chunk(vmIndex);
+		int base = base(vmIndex);
+		for (int i = 0; i < recordSize; i += 8) {
+			buffer.putLong(base + i, 0);
+		}
+		buffer.putInt(base, kinds.length);
+		buffer.putInt(base + 4, selectionButtonCount);
+		for (int i = 0; i < kinds.length; i++) {
+			buffer.putInt(base + values + 4 * i, kinds[i]);
+		}
+		machineCount++;
+		header.putInt(24, machineCount);
+		return vmIndex;
+	}
+
+	@Override
+	public void configureVendingMachine(int vmIndex, List<String> popNames, List<Integer> popCosts)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		checkMachine(vmIndex);
+		MappedByteBuffer buffer = chunk(vmIndex);
+		int base = base(vmIndex);
+		int buttonCount = buffer.getInt(base + 4);
+		if (popNames == null || popCosts == null) {
+			throw new IllegalArgumentException("arguments may not be null");
+		}
+		if (popNames.size() != buttonCount || popCosts.size() != buttonCount) {
+			throw new IllegalArgumentException("data lists do not match the number of buttons constructed");
+		}
+		for (int i = 0; i < buttonCount; i++) {
+			VendingMachine.VmButton button = new VendingMachine.VmButton(popNames.get(i), popCosts.get(i));
+			int at = base + buttons + 24 * i;
+			buffer.putInt(at, button.getCost());
+			buffer.putInt(at + 4, fileBrand(button.getName()));
+		}
+	}
+
+	@Override
+	public void loadCoins(int vmIndex, int coinKindIndex, Coin... coins)
+			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
+		checkMachine(vmIndex);
+		if (coins == null) {
+			throw new NullPointerException("coin array cannot be null");
+		}
+		for (int i = 0; i < coins.length; i++) {
+			if (coins[i] == null) {
+				throw new NullPointerException("coin cannot be null");
+			}
+		}
+		if (coins.length == 0) {
+			loadCoins(vmIndex, coinKindIndex, 0, 0);
+		} else {
+			for (int i = 0; i < coins.length; i++) {
+				if (coins[i].getValue() != coins[0].getValue()) {
+					throw new IllegalArgumentException("coins must have the value of their coin kind");
+				}
+			}
+			loadCoins(vmIndex, coinKindIndex, coins[0].getValue(), coins.length);
+		}
+	}
+
+	@Override
+	public void loadCoins(int vmIndex, int coinKindIndex, int value, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		checkMachine(vmIndex);
+		MappedByteBuffer buffer = chunk(vmIndex);
+		int base = base(vmIndex);
+		if (coinKindIndex < 0 || coinKindIndex > buffer.getInt(base) - 1) {
+			throw new IndexOutOfBoundsException("the coinKindIndex is out of bounds");
+		}
+		if (VendingMachine.checkCoinLoad(count)) {
+			if (value != buffer.getInt(base + values + 4 * coinKindIndex)) {
+				throw new IllegalArgumentException("coins must have the value of their coin kind");
+			}
+			int at = base + banks + 8 * (Bank.CHANGE.ordinal() * maxKinds + coinKindIndex);
+			buffer.putLong(at, buffer.getLong(at) + count);
+		}
+	}
+
+	@Override
+	public void loadPops(int vmIndex, int popKindIndex, Pop... pops)
+			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
+		checkMachine(vmIndex);
+		if (pops == null) {
+			throw new NullPointerException("pop array cannot be null");
+		}
+		for (int i = 0; i < pops.length; i++) {
+			if (pops[i] == null) {
+				throw new NullPointerException("pop cannot be null");
+			}
+		}
+		if (pops.length == 0) {
+			loadPops(vmIndex, popKindIndex, null, 0);
+		} else {
+			for (int i = 0; i < pops.length; i++) {
+				if (!pops[i].getName().equals(pops[0].getName())) {
+					throw new IllegalArgumentException("a rack can only hold one brand at a time");
+				}
+			}
+			loadPops(vmIndex, popKindIndex, pops[0].getName(), pops.length);
+		}
+	}
+
+	@Override
+	public void loadPops(int vmIndex, int popKindIndex, String name, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		checkMachine(vmIndex);
+		MappedByteBuffer buffer = chunk(vmIndex);
+		int base = base(vmIndex);
+		if (popKindIndex < 0 || popKindIndex > buffer.getInt(base + 4) - 1) {
+			throw new IndexOutOfBoundsException("the selected pop kind does not exist");
+		}
+		if (VendingMachine.checkPopLoad(name, count)) {
+			int at = base + buttons + 24 * popKindIndex;
+			if (buffer.getInt(at) == 0) {
+				throw new IndexOutOfBoundsException("pop index out of bounds");
+			}
+			int brand = fileBrand(name);
+			long stocked = buffer.getLong(at + 16);
+			if (stocked > 0 && buffer.getInt(at + 8) != brand) {
+				throw new IllegalArgumentException("a rack can only hold one brand at a time");
+			}
+			buffer.putInt(at + 8, brand);
+			buffer.putLong(at + 16, stocked + count);
+		}
+	}
+
+	@Override
+	public void insertCoin(int vmIndex, Coin coin) throws IndexOutOfBoundsException, NullPointerException {
+		checkMachine(vmIndex);
+		if (coin == null) {
+			throw new NullPointerException("coin cannot be null");
+		}
+		MappedByteBuffer buffer = chunk(vmIndex);
+		int base = base(vmIndex);
+		int kinds = buffer.getInt(base);
+		int value = coin.getValue();
+		for (int i = 0; i < kinds; i++) {
+			if (buffer.getInt(base + values + 4 * i) == value) {
+				int at = base + banks + 8 * (Bank.PAYMENT.ordinal() * maxKinds + i);
+				buffer.putLong(at, buffer.getLong(at) + 1);
+				buffer.putLong(base + 8, buffer.getLong(base + 8) + value);
+				return;
+			}
+		}
+		for (int i = 0; i < REJECTED_VALUES; i++) {
+			int at = base + rejected + 16 * i;
+			long count = buffer.getLong(at + 8);
+			if (count == 0 || buffer.getInt(at) == value) {
+				buffer.putInt(at, value);
+				buffer.putLong(at + 8, count + 1);
+				return;
+			}
+		}
+		throw new IllegalStateException("the delivery chute is full");
+	}
+
+	@Override
+	public void pressButton(int vmIndex, int value) throws IndexOutOfBoundsException {
+		checkMachine(vmIndex);
+		MappedByteBuffer buffer = chunk(vmIndex);
+		int base = base(vmIndex);
+		int buttonCount = buffer.getInt(base + 4);
+		if (value < 0 || value > buttonCount - 1) {
+			throw new IndexOutOfBoundsException("the button does not exist");
+		}
+		int at = base + buttons + 24 * value;
+		int cost = buffer.getInt(at);
+		if (cost == 0) {
+			throw new IndexOutOfBoundsException("button doesn't exist");
+		}
+		long credit = buffer.getLong(base + 8);
+		long stocked = buffer.getLong(at + 16);
+		if (cost > credit || stocked == 0) {
+			// not enough money, or no more pop
+			return;
+		}
+		int brand = buffer.getInt(at + 8);
+		int slot = -1;
+		for (int i = 0; i < buttonCount && slot < 0; i++) {
+			int pop = base + chutePops + 16 * i;
+			if (buffer.getLong(pop + 8) == 0 || buffer.getInt(pop) == brand) {
+				slot = pop;
+			}
+		}
+		if (slot < 0) {
+			throw new IllegalStateException("the delivery chute is full");
+		}
+		buffer.putLong(at + 16, stocked - 1);
+		buffer.putInt(slot, brand);
+		buffer.putLong(slot + 8, buffer.getLong(slot + 8) + 1);
+
+		long due = credit - cost;
+		int s = system(buffer, base);
+		long[] available = scratch.get(s)[0];
+		long[] dispense = scratch.get(s)[1];
+		for (int i = 0; i < available.length; i++) {
+			available[i] = buffer.getLong(base + banks + 8 * (Bank.CHANGE.ordinal() * maxKinds + i));
+		}
+		long paid = changeMakers.get(s).makeChange(due, available, dispense);
+		for (int i = 0; i < dispense.length; i++) {
+			if (dispense[i] > 0) {
+				int change = base + banks + 8 * (Bank.CHANGE.ordinal() * maxKinds + i);
+				buffer.putLong(change, buffer.getLong(change) - dispense[i]);
+				int chute = base + banks + 8 * (Bank.COUNT * maxKinds + i);
+				buffer.putLong(chute, buffer.getLong(chute) + dispense[i]);
+			}
+		}
+		buffer.putLong(base + 8, due - paid);
+	}
+
+	@Override
+	public List<Deliverable> extractFromDeliveryChute(int vmIndex) throws IndexOutOfBoundsException {
+		checkMachine(vmIndex);
+		MappedByteBuffer buffer = chunk(vmIndex);
+		int base = base(vmIndex);
+		RunQueue coins = new RunQueue();
+		int kinds = buffer.getInt(base);
+		for (int i = 0; i < kinds; i++) {
+			int at = base + banks + 8 * (Bank.COUNT * maxKinds + i);
+			coins.add(buffer.getInt(base + values + 4 * i), buffer.getLong(at));
+			buffer.putLong(at, 0);
+		}
+		for (int i = 0; i < REJECTED_VALUES; i++) {
+			int at = base + rejected + 16 * i;
+			coins.add(buffer.getInt(at), buffer.getLong(at + 8));
+			buffer.putLong(at + 8, 0);
+		}
+		RunQueue pops = new RunQueue();
+		int buttonCount = buffer.getInt(base + 4);
+		for (int i = 0; i < buttonCount; i++) {
+			int at = base + chutePops + 16 * i;
+			pops.add(brandIds[buffer.getInt(at)], buffer.getLong(at + 8));
+			buffer.putLong(at + 8, 0);
+		}
+		return new DeliveryList(new CoinList(coins), new PopList(pops));
+	}
+
+	@Override
+	public List<List<?>> unloadVendingMachine(int vmIndex) throws IndexOutOfBoundsException {
+		checkMachine(vmIndex);
+		MappedByteBuffer buffer = chunk(vmIndex);
+		int base = base(vmIndex);
+		int kinds = buffer.getInt(base);
+		List<List<?>> ret = new ArrayList<List<?>>();
+		for (Bank bank : Bank.values()) {
+			RunQueue coins = new RunQueue();
+			for (int i = 0; i < kinds; i++) {
+				int at = base + banks + 8 * (bank.ordinal() * maxKinds + i);
+				coins.add(buffer.getInt(base + values + 4 * i), buffer.getLong(at));
+				buffer.putLong(at, 0);
+			}
+			ret.add(new CoinList(coins));
+		}
+		RunQueue pops = new RunQueue();
+		int buttonCount = buffer.getInt(base + 4);
+		for (int i = 0; i < buttonCount; i++) {
+			int at = base + buttons + 24 * i;
+			pops.add(brandIds[buffer.getInt(at + 8)], buffer.getLong(at + 16));
+			buffer.putLong(at + 16, 0);
+		}
+		ret.add(new PopList(pops));
+		return ret;
+	}
+}
@@ -0,0 +1,58 @@
+package seng301.assn1;
+
+import java.util.Arrays;
+
+/**
+ * Keeps hibernated machines on the heap, as one byte array each
+ */
+public class MemoryHibernationStore implements HibernationStore {
+	private byte[][] forms;
+	private long bytes;
+
+	/**
+	 * Basic Constructor
+	 */
+	public MemoryHibernationStore() {
+		forms = new byte[16][];
+	}
+
+	@Override
+	public void put(int vmIndex, byte[] compactForm) {
+		if (vmIndex >= forms.length) {
+			forms = Arrays.copyOf(forms, Math.max(forms.length * 2, vmIndex + 1));
+		}
+		remove(vmIndex);
+		forms[vmIndex] = compactForm;
+		bytes += compactForm.length;
+	}
+
+	@Override
+	public byte[] get(int vmIndex) {
+		if (vmIndex < 0 || vmIndex > forms.length - 1) {
+			return null;
+		}
+		return forms[vmIndex];
+	}
+
+	@Override
+	public byte[] take(int vmIndex) {
+		byte[] ret = get(vmIndex);
+		remove(vmIndex);
+		return ret;
+	}
+
+	@Override
+	public void remove(int vmIndex) {
+		if (vmIndex >= 0 && vmIndex < forms.length && forms[vmIndex] != null) {
+			bytes -= forms[vmIndex].length;
+			forms[vmIndex] = null;
+		}
+	}
+
+	/**
+	 * @return the combined size of the forms kept
+	 */
+	public long getByteCount() {
+		return bytes;
+	}
+}
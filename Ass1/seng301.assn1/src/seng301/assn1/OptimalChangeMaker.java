@@ -0,0 +1,135 @@
+package seng301.assn1;
+
+import java.util.Arrays;
+
+/**
+ * Bounded knapsack change maker. Returns the largest amount not exceeding the
+ * change due that the current coin counts can make, using as few coins as
+ * possible. Each coin kind's count is split into power-of-two bundles so the
+ * table grows with the logarithm of the counts rather than the counts
+ * themselves. Small tables are kept between calls, so an instance must not be
+ * shared between machines used from different threads; tables built for
+ * unusually large change are dropped once the change is made.
+ */
+public class OptimalChangeMaker implements ChangeMaker {
+	/**
+	 * Largest table, in cells, that will be built for a single purchase
+	 */
+	public static final long MAX_TABLE_CELLS = 1L << 26;
+
+	/**
+	 * Largest tables, in entries, kept between calls
+	 */
+	private static final int MAX_KEPT_WIDTH = 4096;
+	private static final int MAX_KEPT_WORDS = 2048;
+
+	private CoinSystem coinSystem;
+	private GreedyChangeMaker greedy;
+	private int[] best;
+	private int[] bundleKind;
+	private long[] bundleSize;
+	private long[] taken;
+
+	/**
+	 * Basic Constructor
+	 */
+	public OptimalChangeMaker(CoinSystem coinSystem) {
+		this.coinSystem = coinSystem;
+		this.greedy = new GreedyChangeMaker(coinSystem, null);
+		this.best = new int[0];
+		this.bundleKind = new int[0];
+		this.bundleSize = new long[0];
+		this.taken = new long[0];
+	}
+
+	@Override
+	public long makeChange(long due, long[] available, long[] dispense) {
+		int kinds = coinSystem.getKindCount();
+		int bundles = 0;
+		long everything = 0;
+		for (int kind = 0; kind < kinds; kind++) {
+			dispense[kind] = 0;
+			long usable = Math.min(available[kind], due / coinSystem.getValue(kind));
+			bundles += 64 - Long.numberOfLeadingZeros(usable);
+			everything += usable * coinSystem.getValue(kind);
+		}
+		if (due == 0 || bundles == 0) {
+			return 0;
+		}
+		if (everything <= due) {
+			// every usable coin fits, so handing them all out is best
+			for (int kind = 0; kind < kinds; kind++) {
+				dispense[kind] = Math.min(available[kind], due / coinSystem.getValue(kind));
+			}
+			return everything;
+		}
+		if ((long) bundles * (due + 1) > MAX_TABLE_CELLS) {
+			// too large to solve exactly at purchase time
+			return greedy.makeChange(due, available, dispense);
+		}
+		int width = (int) due + 1;
+		int words = (int) (((long) bundles * width + 63) >>> 6);
+		ensureCapacity(width, bundles, words);
+		best[0] = 0;
+		Arrays.fill(best, 1, width, Integer.MAX_VALUE);
+		Arrays.fill(taken, 0, words, 0);
+		int bundle = 0;
+		for (int kind = 0; kind < kinds; kind++) {
+			int value = coinSystem.getValue(kind);
+			long usable = Math.min(available[kind], due / value);
+			for (long size = 1; usable > 0; size <<= 1) {
+				long cur = Math.min(size, usable);
+				usable -= cur;
+				bundleKind[bundle] = kind;
+				bundleSize[bundle] = cur;
+				int weight = (int) (cur * value);
+				long row = (long) bundle * width;
+				for (int amount = width - 1; amount >= weight; amount--) {
+					int from = best[amount - weight];
+					if (from != Integer.MAX_VALUE && from + cur < best[amount]) {
+						best[amount] = (int) (from + cur);
+						long bit = row + amount;
+						taken[(int) (bit >>> 6)] |= 1L << bit;
+					}
+				}
+				bundle++;
+			}
+		}
+		int amount = width - 1;
+		while (best[amount] == Integer.MAX_VALUE) {
+			amount--;
+		}
+		long paid = amount;
+		for (bundle = bundles - 1; bundle >= 0 && amount > 0; bundle--) {
+			long bit = (long) bundle * width + amount;
+			if ((taken[(int) (bit >>> 6)] & (1L << bit)) != 0) {
+				dispense[bundleKind[bundle]] += bundleSize[bundle];
+				amount -= bundleSize[bundle] * coinSystem.getValue(bundleKind[bundle]);
+			}
+		}
+		if (best.length > MAX_KEPT_WIDTH) {
+			best = new int[0];
+		}
+		if (taken.length > MAX_KEPT_WORDS) {
+			taken = new long[0];
+		}
+		return paid;
+	}
+
+	/**
+	 * Grows the tables kept between calls, with room to spare up to the size
+	 * that is kept so that similar purchases do not have to grow them again
+	 */
+	private void ensureCapacity(int width, int bundles, int words) {
+		if (best.length < width) {
+			best = new int[Math.max(width, Math.min(MAX_KEPT_WIDTH, best.length + (best.length >> 1)))];
+		}
+		if (bundleKind.length < bundles) {
+			bundleKind = new int[Math.max(bundles, bundleKind.length + (bundleKind.length >> 1))];
+			bundleSize = new long[bundleKind.length];
+		}
+		if (taken.length < words) {
+			taken = new long[Math.max(words, Math.min(MAX_KEPT_WORDS, taken.length + (taken.length >> 1)))];
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package seng301.assn1;
+
+import org.lsmr.vending.frontend1.Pop;
+
+/**
+ * A read-only list of pops backed by runs of brand ids. Pop objects are only
+ * created when an element is actually requested.
+ */
+public class PopList extends RunList<Pop> {
+	/**
+	 * Copies the runs currently held by the queue; the queue itself is not
+	 * modified
+	 */
+	public PopList(RunQueue queue) {
+		super(queue);
+	}
+
+	@Override
+	protected Pop create(int item) {
+		return new Pop(Brands.getName(item));
+	}
+}
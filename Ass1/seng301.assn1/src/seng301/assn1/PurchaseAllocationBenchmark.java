@@ -0,0 +1,123 @@
+package seng301.assn1;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import org.lsmr.vending.frontend1.Coin;
+
+/**
+ * Measures the bytes allocated per customer interaction (insert coins, press a
+ * button, extract a summary of the delivery chute) once the machines have
+ * warmed up. Exits with a non-zero status if the measured interactions
+ * allocate even a single byte, so it can be run as a check.
+ */
+public class PurchaseAllocationBenchmark {
+	private static final int WARMUP_OPERATIONS = 200000;
+	private static final int MEASURED_OPERATIONS = 1000000;
+
+	/**
+	 * Number of customer interactions in each batch given to
+	 * {@link VendingMachineFactory#execute(CommandBuffer, CommandResults)}
+	 */
+	private static final int BATCH = 64;
+
+	/**
+	 * Runs the benchmark against a canonical coin system (greedy change) and a
+	 * non-canonical one (knapsack change), through the single-call API and the
+	 * batch API.
+	 */
+	public static void main(String[] args) {
+		boolean ok = true;
+		for (boolean batched : new boolean[] { false, true }) {
+			String api = batched ? "batched " : "";
+			long canonical = run(Arrays.asList(5, 10, 25, 100), new int[] { 100, 100, 100 }, 205, batched);
+			long nonCanonical = run(Arrays.asList(1, 3, 4), new int[] { 4, 4, 1, 1 }, 4, batched);
+			report(api + "canonical", canonical);
+			report(api + "non-canonical", nonCanonical);
+			ok &= canonical <= 0 && nonCanonical <= 0;
+		}
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	private static void report(String name, long bytes) {
+		System.out.printf("%s: %d bytes, %.6f bytes/op%n", name, bytes, bytes / (double) MEASURED_OPERATIONS);
+	}
+
+	/**
+	 * @return the bytes allocated over all of the measured interactions
+	 */
+	private static long run(List<Integer> coinKinds, int[] payment, int cost, boolean batched) {
+		VendingMachineFactory factory = new VendingMachineFactory();
+		int vm = factory.constructNewVendingMachine(coinKinds, 1);
+		factory.configureVendingMachine(vm, Arrays.asList("\"pop\""), Arrays.asList(cost));
+		long operations = WARMUP_OPERATIONS + MEASURED_OPERATIONS;
+		VendingMachine machine = factory.getVendingMachine(vm);
+		for (int i = 0; i < coinKinds.size(); i++) {
+			machine.addCoins(i, coinKinds.get(i), operations * 4);
+		}
+		machine.addPops(0, "\"pop\"", operations);
+		Coin[] coins = new Coin[payment.length];
+		for (int i = 0; i < coins.length; i++) {
+			coins[i] = new Coin(payment[i]);
+		}
+		ChuteSummary summary = new ChuteSummary();
+		CommandBuffer commands = new CommandBuffer();
+		for (int i = 0; i < BATCH; i++) {
+			for (int j = 0; j < payment.length; j++) {
+				commands.insertCoin(vm, payment[j]);
+			}
+			commands.pressButton(vm, 0);
+			commands.extract(vm);
+		}
+		CommandResults results = new CommandResults();
+		if (batched) {
+			interact(factory, commands, results, WARMUP_OPERATIONS);
+		} else {
+			interact(factory, vm, coins, summary, WARMUP_OPERATIONS);
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		long popCount;
+		if (batched) {
+			popCount = interact(factory, commands, results, MEASURED_OPERATIONS);
+		} else {
+			interact(factory, vm, coins, summary, MEASURED_OPERATIONS);
+			popCount = summary.getPopCount("\"pop\"");
+		}
+		long after = threads.getThreadAllocatedBytes(thread);
+		if (popCount != (batched ? MEASURED_OPERATIONS : operations)) {
+			throw new IllegalStateException("not every purchase delivered a pop");
+		}
+		return after - before;
+	}
+
+	private static void interact(VendingMachineFactory factory, int vm, Coin[] coins, ChuteSummary summary,
+			int operations) {
+		for (int i = 0; i < operations; i++) {
+			for (int j = 0; j < coins.length; j++) {
+				factory.insertCoin(vm, coins[j]);
+			}
+			factory.pressButton(vm, 0);
+			factory.extractSummaryFromDeliveryChute(vm, summary);
+		}
+	}
+
+	/**
+	 * @return the number of pops delivered
+	 */
+	private static long interact(VendingMachineFactory factory, CommandBuffer commands, CommandResults results,
+			int operations) {
+		long popCount = 0;
+		for (int i = 0; i < operations; i += BATCH) {
+			factory.execute(commands, results);
+			popCount += results.getSummary().getPopCount();
+		}
+		return popCount;
+	}
+}
@@ -0,0 +1,58 @@
+package seng301.assn1;
+
+import java.util.AbstractList;
+
+/**
+ * A read-only list backed by runs of identical items, copied out of a
+ * {@link RunQueue}. Element objects are only created when they are requested.
+ */
+public abstract class RunList<T> extends AbstractList<T> {
+	private int[] items;
+	private long[] ends;
+
+	/**
+	 * Copies the runs currently held by the queue; the queue itself is not
+	 * modified
+	 */
+	public RunList(RunQueue queue) {
+		items = new int[queue.getRunCount()];
+		ends = new long[queue.getRunCount()];
+		long end = 0;
+		for (int i = 0; i < items.length; i++) {
+			items[i] = queue.getRunItem(i);
+			end += queue.getRunLength(i);
+			ends[i] = end;
+		}
+	}
+
+	/**
+	 * Creates the element represented by an item of the queue
+	 */
+	protected abstract T create(int item);
+
+	@Override
+	public T get(int index) throws IndexOutOfBoundsException {
+		if (index < 0 || index > size() - 1) {
+			throw new IndexOutOfBoundsException("index out of bounds");
+		}
+		int lo = 0;
+		int hi = ends.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (ends[mid] > index) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return create(items[lo]);
+	}
+
+	@Override
+	public int size() {
+		if (ends.length == 0) {
+			return 0;
+		}
+		return (int) Math.min(ends[ends.length - 1], Integer.MAX_VALUE);
+	}
+}
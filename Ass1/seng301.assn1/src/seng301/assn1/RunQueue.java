@@ -0,0 +1,220 @@
+package seng301.assn1;
+
+/**
+ * A first-in first-out queue of integer items stored as runs of identical
+ * items. Adding a million identical coins costs the same as adding one; the
+ * order in which differing items were added is still preserved.
+ * 
+ * <p>
+ * A queue can record an owner. Containers that share queues between
+ * snapshots use it to tell whether they may modify a queue in place or must
+ * {@link #copy(Object)} it first.
+ */
+public class RunQueue {
+	private int[] items;
+	private long[] counts;
+	private int head;
+	private int runs;
+	private long size;
+	private long total;
+	private Object owner;
+
+	/**
+	 * Basic Constructor
+	 */
+	public RunQueue() {
+		this(null);
+	}
+
+	/**
+	 * Creates an empty queue belonging to the given owner
+	 */
+	public RunQueue(Object owner) {
+		this.owner = owner;
+		items = new int[4];
+		counts = new long[4];
+		head = 0;
+		runs = 0;
+		size = 0;
+		total = 0;
+	}
+
+	/**
+	 * Appends count copies of item to the tail of the queue
+	 */
+	public void add(int item, long count) throws IllegalArgumentException {
+		if (count < 0) {
+			throw new IllegalArgumentException("count cannot be negative");
+		}
+		if (count == 0) {
+			return;
+		}
+		if (runs > 0) {
+			int tail = (head + runs - 1) % items.length;
+			if (items[tail] == item) {
+				counts[tail] += count;
+				size += count;
+				total += item * count;
+				return;
+			}
+		}
+		if (runs == items.length) {
+			grow();
+		}
+		int tail = (head + runs) % items.length;
+		items[tail] = item;
+		counts[tail] = count;
+		runs++;
+		size += count;
+		total += item * count;
+	}
+
+	/**
+	 * Returns the item at the head of the queue without removing it
+	 */
+	public int peek() throws IllegalStateException {
+		if (runs == 0) {
+			throw new IllegalStateException("queue is empty");
+		}
+		return items[head];
+	}
+
+	/**
+	 * Removes a single item from the head of the queue and returns it
+	 */
+	public int poll() throws IllegalStateException {
+		if (runs == 0) {
+			throw new IllegalStateException("queue is empty");
+		}
+		int item = items[head];
+		size--;
+		total -= item;
+		if (--counts[head] == 0) {
+			head = (head + 1) % items.length;
+			runs--;
+		}
+		return item;
+	}
+
+	/**
+	 * Copies every run of this queue, in order, to the tail of another queue
+	 */
+	public void appendTo(RunQueue other) {
+		for (int i = 0; i < runs; i++) {
+			int index = (head + i) % items.length;
+			other.add(items[index], counts[index]);
+		}
+	}
+
+	/**
+	 * Moves every run of this queue, in order, to the tail of another queue
+	 */
+	public void drainTo(RunQueue other) {
+		appendTo(other);
+		clear();
+	}
+
+	/**
+	 * @return an independent copy of this queue belonging to the given owner
+	 */
+	public RunQueue copy(Object owner) {
+		RunQueue ret = new RunQueue(owner);
+		ret.items = items.clone();
+		ret.counts = counts.clone();
+		ret.head = head;
+		ret.runs = runs;
+		ret.size = size;
+		ret.total = total;
+		return ret;
+	}
+
+	/**
+	 * @return true if the queue was created or copied for the given owner
+	 */
+	public boolean isOwnedBy(Object owner) {
+		return this.owner == owner;
+	}
+
+	/**
+	 * Moves count items from the head of this queue to the tail of another
+	 * queue, in time proportional to the number of runs moved
+	 */
+	public void transferTo(RunQueue other, long count) throws IllegalArgumentException {
+		if (count < 0 || count > size) {
+			throw new IllegalArgumentException("cannot transfer " + count + " of " + size + " items");
+		}
+		while (count > 0) {
+			long take = Math.min(count, counts[head]);
+			int item = items[head];
+			other.add(item, take);
+			size -= take;
+			total -= item * take;
+			count -= take;
+			if ((counts[head] -= take) == 0) {
+				head = (head + 1) % items.length;
+				runs--;
+			}
+		}
+	}
+
+	/**
+	 * Empties the queue
+	 */
+	public void clear() {
+		head = 0;
+		runs = 0;
+		size = 0;
+		total = 0;
+	}
+
+	public boolean isEmpty() {
+		return runs == 0;
+	}
+
+	/**
+	 * @return the number of items in the queue
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return the sum of every item in the queue
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return the number of runs of identical items
+	 */
+	public int getRunCount() {
+		return runs;
+	}
+
+	/**
+	 * @return the item of the run at position index, counted from the head
+	 */
+	public int getRunItem(int index) {
+		return items[(head + index) % items.length];
+	}
+
+	/**
+	 * @return the length of the run at position index, counted from the head
+	 */
+	public long getRunLength(int index) {
+		return counts[(head + index) % items.length];
+	}
+
+	private void grow() {
+		int[] newItems = new int[items.length * 2];
+		long[] newCounts = new long[counts.length * 2];
+		for (int i = 0; i < runs; i++) {
+			newItems[i] = items[(head + i) % items.length];
+			newCounts[i] = counts[(head + i) % counts.length];
+		}
+		items = newItems;
+		counts = newCounts;
+		head = 0;
+	}
+}
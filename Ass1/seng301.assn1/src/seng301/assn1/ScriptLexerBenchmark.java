@@ -0,0 +1,157 @@
+package seng301.assn1;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.lsmr.vending.frontend1.parser.ParserConstants;
+import org.lsmr.vending.frontend1.parser.ParserTokenManager;
+import org.lsmr.vending.frontend1.parser.ScriptLexer;
+import org.lsmr.vending.frontend1.parser.SimpleCharStream;
+import org.lsmr.vending.frontend1.parser.Token;
+import org.lsmr.vending.frontend1.parser.TokenBuffer;
+import org.lsmr.vending.frontend1.parser.TokenMgrError;
+
+/**
+ * Compares the hand-written {@link ScriptLexer} with the generated
+ * {@link ParserTokenManager}. First it lexes a corpus with both and checks
+ * that they give the same tokens, positions and lexical errors; the corpus
+ * is the scripts that come with the project, any named on the command line,
+ * and scripts assembled at random from pieces of the language, broken ones
+ * included. Exits with a non-zero
+ * status if they differ, so it can be run as a check. Then it reports how
+ * fast each lexes a large generated script, in megabytes per second.
+ */
+public class ScriptLexerBenchmark {
+	private static final int RANDOM_SCRIPTS = 100000;
+	private static final int REPEATS = 3;
+
+	/**
+	 * Scripts that come with the project, found from the working directory as
+	 * {@link VendingMachineFactory#main(String[])} finds them
+	 */
+	private static final String[] PROJECT_SCRIPTS = { "good-script", "bad-script1", "bad-script2", "test-script" };
+
+	/**
+	 * Pieces that random scripts are assembled from
+	 */
+	private static final String[] PIECES = { "construct", "configure", "coin-load", "extract", "press", "pop-load",
+			"insert", "unload", "CHECK_DELIVERY", "CHECK_TEARDOWN", "con", "coin", "pop-", "CHECK_", "0", "7", "-",
+			"-5", "-0", "123", "00", "9999999999999", "(", ")", ",", ";", "[", "]", " ", "\t", "\n", "\r", "\r\n",
+			"\f", "\"", "\"Coke\"", "\"a\\nb\"", "\"\\q\"", "\"\\\"\"", "\"\\377\"", "\\", "/*", "*/", "/**", "/**/",
+			"//", "/", "*", "x", "@", "\u00e9" };
+
+	/**
+	 * @param args
+	 *            The size of the generated script in megabytes (64 if absent),
+	 *            then any scripts to add to the corpus
+	 */
+	public static void main(String[] args) throws IOException {
+		long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 64;
+		List<String> corpus = new ArrayList<String>();
+		for (String path : PROJECT_SCRIPTS) {
+			corpus.add(read(path));
+		}
+		for (int i = 1; i < args.length; i++) {
+			corpus.add(read(args[i]));
+		}
+		Random random = new Random(301);
+		for (int i = 0; i < RANDOM_SCRIPTS; i++) {
+			StringBuilder script = new StringBuilder();
+			int pieces = random.nextInt(i % 100 == 0 ? 500 : 30);
+			for (int j = 0; j < pieces; j++) {
+				script.append(PIECES[random.nextInt(PIECES.length)]);
+			}
+			corpus.add(script.toString());
+		}
+
+		int failures = 0;
+		for (String script : corpus) {
+			// the stream the parser uses, which tracks the position of every
+			// character, so positions are checked against the real thing
+			List<String> expected = lex(new ParserTokenManager(new SimpleCharStream(new StringReader(script), 1, 1)));
+			// a small buffer, so that tokens straddle refills
+			List<String> actual = lex(new ScriptLexer(new StringReader(script), 16));
+			if (!expected.equals(actual)) {
+				failures++;
+				int i = 0;
+				while (i < expected.size() && i < actual.size() && expected.get(i).equals(actual.get(i))) {
+					i++;
+				}
+				System.out.println("Failure: lexing " + escape(script));
+				System.out.println("  generated: " + (i < expected.size() ? expected.get(i) : "nothing"));
+				System.out.println("  ScriptLexer: " + (i < actual.size() ? actual.get(i) : "nothing"));
+			}
+		}
+		System.out.println(corpus.size() + " scripts compared, " + failures + " differ");
+		if (failures > 0) {
+			System.exit(1);
+		}
+
+		File script = File.createTempFile("lexer", ".script");
+		script.deleteOnExit();
+		ScriptThroughputBenchmark.generate(script, megabytes << 20, false);
+		double size = script.length() / (double) (1 << 20);
+		for (int i = 0; i < REPEATS; i++) {
+			long start = System.nanoTime();
+			long tokens = count(new ParserTokenManager(new SimpleCharStream(new FileReader(script), 1, 1, 4096, false)));
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("ParserTokenManager: %.1f MB/s, %d tokens%n", size / seconds, tokens);
+
+			start = System.nanoTime();
+			tokens = count(new ScriptLexer(new FileReader(script)));
+			seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("ScriptLexer: %.1f MB/s, %d tokens%n", size / seconds, tokens);
+		}
+	}
+
+	private static String read(String path) throws IOException {
+		return new String(Files.readAllBytes(new File(path).toPath()), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return each token, or the lexical error that ends the tokens, as text
+	 */
+	private static List<String> lex(ParserTokenManager lexer) {
+		List<String> ret = new ArrayList<String>();
+		try {
+			Token t;
+			do {
+				t = lexer.getNextToken();
+				ret.add(t.kind + " " + escape(t.image) + " " + t.beginLine + ":" + t.beginColumn + "-" + t.endLine + ":"
+						+ t.endColumn);
+			} while (t.kind != ParserConstants.EOF);
+		} catch (TokenMgrError e) {
+			ret.add(e.getMessage());
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the number of tokens up to the end of the input, lexed in
+	 *         batches
+	 */
+	private static long count(ParserTokenManager lexer) {
+		TokenBuffer buffer = new TokenBuffer();
+		long ret = 0;
+		do {
+			buffer.clear();
+			ret += lexer.fill(buffer, 256);
+			if (buffer.getError() != null) {
+				throw buffer.getError();
+			}
+		} while (buffer.getKind(buffer.size() - 1) != ParserConstants.EOF);
+		return ret;
+	}
+
+	private static String escape(String s) {
+		return "\"" + s.replace("\\", "\\\\").replace("\r", "\\r").replace("\n", "\\n").replace("\t", "\\t") + "\"";
+	}
+}
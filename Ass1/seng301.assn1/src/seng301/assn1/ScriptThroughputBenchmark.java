@@ -0,0 +1,149 @@
+package seng301.assn1;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import org.lsmr.vending.frontend1.ScriptProcessor;
+import org.lsmr.vending.frontend1.parser.ParseException;
+import org.lsmr.vending.frontend1.parser.Parser;
+import org.lsmr.vending.frontend1.parser.ParserConstants;
+import org.lsmr.vending.frontend1.parser.ParserTokenManager;
+import org.lsmr.vending.frontend1.parser.SimpleCharStream;
+import org.lsmr.vending.frontend1.parser.Token;
+import org.lsmr.vending.frontend1.parser.TokenBuffer;
+
+/**
+ * Measures how fast scripts are parsed and carried out, in megabytes per
+ * second, by generating a large script and running it through
+ * {@link ScriptProcessor}, with and without pipelining, and through a parser
+ * reading an unbuffered {@link FileReader}, as scripts used to be read. The
+ * per-command report the parser writes to the standard error stream is
+ * discarded while measuring.
+ * It also reports how many bytes the lexer allocates per token, when tokens
+ * are taken one Token at a time and when they are lexed into a
+ * {@link TokenBuffer}.
+ */
+public class ScriptThroughputBenchmark {
+	private static final int MACHINE_BLOCKS = 100;
+	private static final int REPEATS = 3;
+
+	/**
+	 * @param args
+	 *            The size of the generated script in megabytes (64 if absent),
+	 *            and "unicode" to give a brand a name outside ASCII.
+	 */
+	public static void main(String[] args) throws IOException, ParseException {
+		long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 64;
+		boolean unicode = args.length > 1 && args[1].equals("unicode");
+		File script = File.createTempFile("throughput", ".script");
+		script.deleteOnExit();
+		generate(script, megabytes << 20, unicode);
+		System.out.println("script: " + script.length() + " bytes" + (unicode ? ", not ASCII" : ""));
+
+		PrintStream err = System.err;
+		System.setErr(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+		try {
+			for (int i = 0; i < REPEATS; i++) {
+				long start = System.nanoTime();
+				Parser p = new Parser(new FileReader(script));
+				p.register(new VendingMachineFactory());
+				p.process(script.getPath());
+				double seconds = (System.nanoTime() - start) / 1e9;
+				System.out.printf("FileReader: %.1f MB/s%n", script.length() / (double) (1 << 20) / seconds);
+
+				ScriptProcessor processor = new ScriptProcessor(script.getPath(), new VendingMachineFactory(), false);
+				System.out.printf("ScriptProcessor: %.1f MB/s%n", processor.getThroughput());
+
+				processor = new ScriptProcessor(script.getPath(), new VendingMachineFactory(), false, true);
+				System.out.printf("ScriptProcessor, pipelined: %.1f MB/s%n", processor.getThroughput());
+			}
+		} finally {
+			System.setErr(err);
+		}
+
+		for (int i = 0; i < REPEATS; i++) {
+			measureLexer(script, false);
+			measureLexer(script, true);
+		}
+	}
+
+	/**
+	 * Lexes the whole script and prints the bytes allocated by this thread
+	 * per token
+	 */
+	private static void measureLexer(File script, boolean buffered) throws IOException {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long tokens = 0;
+		long start = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		try (FileReader in = new FileReader(script)) {
+			ParserTokenManager lexer = new ParserTokenManager(new SimpleCharStream(in, 1, 1, 4096, false));
+			if (buffered) {
+				TokenBuffer buffer = new TokenBuffer();
+				do {
+					buffer.clear();
+					tokens += lexer.fill(buffer, 256);
+				} while (buffer.getKind(buffer.size() - 1) != ParserConstants.EOF);
+			} else {
+				Token t;
+				do {
+					t = lexer.getNextToken();
+					tokens++;
+				} while (t.kind != ParserConstants.EOF);
+			}
+		}
+		long bytes = bean.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+		System.out.printf("%s: %.1f bytes per token%n", buffered ? "TokenBuffer" : "Token", bytes / (double) tokens);
+	}
+
+	/**
+	 * Writes a script of at least the given size, as blocks that each set up
+	 * a number of machines and then sell pops from them
+	 */
+	static void generate(File script, long size, boolean unicode) throws IOException {
+		String brand = unicode ? "\"Caf\u00e9\"" : "\"Coke\"";
+		long written = 0;
+		int machines = 0;
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(script), 1 << 16)) {
+			StringBuilder block = new StringBuilder();
+			while (written < size) {
+				block.setLength(0);
+				for (int i = 0; i < MACHINE_BLOCKS; i++) {
+					int vm = machines++;
+					block.append("construct(5, 10, 25, 100; 2)\n");
+					block.append("configure([").append(vm).append("] ").append(brand).append(", 250; \"Water\", 205)\n");
+					block.append("coin-load([").append(vm).append("] 1; 10, 1000)\n");
+					block.append("coin-load([").append(vm).append("] 2; 25, 1000)\n");
+					block.append("pop-load([").append(vm).append("] 0; ").append(brand).append(", 1000)\n");
+					block.append("pop-load([").append(vm).append("] 1; \"Water\", 1000)\n");
+					for (int j = 0; j < 20; j++) {
+						block.append("insert([").append(vm).append("] 100)\n");
+						block.append("insert([").append(vm).append("] 100)\n");
+						block.append("insert([").append(vm).append("] 100)\n");
+						block.append("press([").append(vm).append("] 0)\n");
+						block.append("extract([").append(vm).append("])\n");
+						block.append("CHECK_DELIVERY(50, ").append(brand).append(")\n");
+						block.append("press([").append(vm).append("] 1)\n");
+						block.append("extract([").append(vm).append("])\n");
+						block.append("CHECK_DELIVERY(0)\n");
+					}
+				}
+				out.append(block);
+				written += block.length();
+			}
+		}
+	}
+}
@@ -1,26 +1,32 @@
 package seng301.assn1;
 
 import java.util.List;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.ArrayDeque;
+import java.util.Collection;
 import org.lsmr.vending.frontend1.Coin;
+import org.lsmr.vending.frontend1.Deliverable;
 import org.lsmr.vending.frontend1.Pop;
 
 public class VendingMachine {
-	private List<Integer> coinTypes;
-	private List<Integer> sortedCoins;
-	private ArrayDeque<Coin> deliveryChute_change;
-	private ArrayDeque<Pop> deliveryChute_pop;
-	private HashMap<Integer, HashMap<String, ArrayDeque<Coin>>> coinInventory;
-	private HashMap<String, ArrayDeque<Pop>> popInventory;
+	private CoinSystem coinSystem;
+	private ChangeMaker changeMaker;
+	private boolean customChangeMaker;
+	private long[] available;
+	private long[] dispense;
+	private RunQueue deliveryChute_change;
+	private RunQueue deliveryChute_pop;
+	private RunQueue[] coinBanks;
+	private RunQueue[] popRacks;
 	private int selectionButtonCount;
-	private List<VmButton> buttons;
+	private VmButton[] buttons;
 	private int coinSlot;
+	private Object owner;
+	private boolean coinBanksOwned;
+	private boolean popRacksOwned;
+	private boolean buttonsOwned;
+	private FleetInventory inventory;
+	private int[] inventorySlots;
 
-	public class VmButton {
+	public static class VmButton {
 		private String name;
 		private int cost;
 
@@ -61,129 +67,647 @@ public class VendingMachine {
 	 */
 	public VendingMachine(List<Integer> coinTypes, int selectionButtonCount)
 			throws IllegalArgumentException, IllegalStateException {
-		coinInventory = new HashMap<Integer, HashMap<String, ArrayDeque<Coin>>>();
-		popInventory = new HashMap<String, ArrayDeque<Pop>>();
-		deliveryChute_change = new ArrayDeque<Coin>();
-		deliveryChute_pop = new ArrayDeque<Pop>();
+		int[] coinKinds = new int[coinTypes.size()];
+		for (int i = 0; i < coinKinds.length; i++) {
+			coinKinds[i] = coinTypes.get(i);
+		}
+		owner = new Object();
+		coinSystem = CoinSystem.forKinds(coinKinds);
+		changeMaker = coinSystem.createChangeMaker();
+		coinBanks = new RunQueue[coinKinds.length * Bank.COUNT];
+		coinBanksOwned = true;
+		deliveryChute_change = new RunQueue(owner);
+		deliveryChute_pop = new RunQueue(owner);
 		coinSlot = 0;
-		buttons = new ArrayList<VmButton>();
-		this.coinTypes = coinTypes;
-		Iterator<Integer> it = coinTypes.iterator();
-		while (it.hasNext()) {
-			Integer cur = it.next();
-			if (coinTypes.indexOf(cur) != coinTypes.lastIndexOf(cur)) {
-				throw new IllegalStateException("Duplicate Coin Type: " + cur);
-			}
-			if (cur <= 0) {
-				throw new IllegalArgumentException("A Coin Type cannot be 0 or negative: " + cur);
-			}
-			coinInventory.put(cur, new HashMap<String, ArrayDeque<Coin>>());
-			coinInventory.get(cur).put("purchase", new ArrayDeque<Coin>());
-			coinInventory.get(cur).put("change", new ArrayDeque<Coin>());
-		}
-		sortedCoins = new ArrayList<Integer>(coinTypes);
-		Collections.sort(sortedCoins);
-		Collections.reverse(sortedCoins);
+		available = new long[coinKinds.length];
+		dispense = new long[coinKinds.length];
 		if (selectionButtonCount < 0) {
 			throw new IllegalArgumentException("selectionButtonCount cannot be less than 0");
 		}
+		buttons = new VmButton[selectionButtonCount];
+		buttonsOwned = true;
+		popRacks = new RunQueue[selectionButtonCount];
+		for (int i = 0; i < popRacks.length; i++) {
+			popRacks[i] = new RunQueue(owner);
+		}
+		popRacksOwned = true;
 		this.selectionButtonCount = selectionButtonCount;
 	}
 
+	/**
+	 * Copy constructor used for snapshots; shares all state with the original
+	 */
+	private VendingMachine(VendingMachine other) {
+		share(other);
+	}
+
+	/**
+	 * Takes a snapshot of the machine in constant time. The snapshot and this
+	 * machine share their coin banks, pop racks and chutes; whichever of them
+	 * is changed first copies only the parts it changes.
+	 * 
+	 * @return an independent machine in the current state of this one
+	 */
+	public VendingMachine snapshot() {
+		VendingMachine ret = new VendingMachine(this);
+		disown();
+		return ret;
+	}
+
+	/**
+	 * Returns this machine, in constant time, to the state held by a snapshot.
+	 * The snapshot is unaffected and can be restored again later.
+	 */
+	public void restore(VendingMachine snapshot) throws IllegalArgumentException {
+		if (snapshot == null) {
+			throw new IllegalArgumentException("arguments may not be null");
+		}
+		if (inventory != null) {
+			account(-1);
+		}
+		share(snapshot);
+		snapshot.disown();
+		if (inventory != null) {
+			inventorySlots = slotsIn(inventory);
+			account(1);
+		}
+	}
+
+	/**
+	 * Makes the machine keep the given totals up to date with its banks and
+	 * racks, counting everything it holds now. A machine reports to at most
+	 * one inventory; null stops reporting, and takes what it holds off the
+	 * totals.
+	 */
+	void setInventory(FleetInventory inventory) {
+		if (this.inventory != null) {
+			account(-1);
+		}
+		this.inventory = inventory;
+		inventorySlots = null;
+		if (inventory != null) {
+			inventorySlots = slotsIn(inventory);
+			account(1);
+		}
+	}
+
+	/**
+	 * Recreates a machine from its compact form, reporting to the given
+	 * inventory (which may be null) without adding to it: the inventory is
+	 * expected to still count what the machine held when it was encoded.
+	 * 
+	 * @param brands
+	 *            The {@link Brands} id of each brand id in the form, if the
+	 *            form was made by another run of the program, or else null.
+	 * @see #toCompactForm()
+	 */
+	VendingMachine(byte[] compactForm, FleetInventory inventory, int[] brands) throws IllegalStateException {
+		CompactReader in = new CompactReader(compactForm);
+		int[] coinKinds = new int[in.readInt()];
+		for (int i = 0; i < coinKinds.length; i++) {
+			coinKinds[i] = in.readInt();
+		}
+		owner = new Object();
+		coinSystem = CoinSystem.forKinds(coinKinds);
+		changeMaker = coinSystem.createChangeMaker();
+		selectionButtonCount = in.readInt();
+		buttons = new VmButton[selectionButtonCount];
+		for (int i = 0; i < buttons.length; i++) {
+			if (in.readLong() != 0) {
+				buttons[i] = new VmButton(in.readString(), in.readInt());
+			}
+		}
+		buttonsOwned = true;
+		coinSlot = in.readInt();
+		coinBanks = new RunQueue[coinKinds.length * Bank.COUNT];
+		for (int i = 0; i < coinBanks.length; i++) {
+			RunQueue bank = new RunQueue(owner);
+			in.readRuns(bank);
+			coinBanks[i] = bank.isEmpty() ? null : bank;
+		}
+		coinBanksOwned = true;
+		popRacks = new RunQueue[selectionButtonCount];
+		for (int i = 0; i < popRacks.length; i++) {
+			popRacks[i] = new RunQueue(owner);
+			in.readRuns(popRacks[i], brands);
+		}
+		popRacksOwned = true;
+		deliveryChute_change = new RunQueue(owner);
+		in.readRuns(deliveryChute_change);
+		deliveryChute_pop = new RunQueue(owner);
+		in.readRuns(deliveryChute_pop, brands);
+		if (!in.isAtEnd()) {
+			throw new IllegalStateException("encoded data is corrupt");
+		}
+		this.inventory = inventory;
+		if (inventory != null) {
+			inventorySlots = slotsIn(inventory);
+		}
+	}
+
+	/**
+	 * Encodes the whole state of the machine in a compact byte form, from
+	 * which {@link #VendingMachine(byte[], FleetInventory, int[])} recreates
+	 * it. Pop brands are encoded by their ids, so outside the running program
+	 * the form is only meaningful together with the names of the brands.
+	 * 
+	 * @return the encoded machine, or null if it uses a custom change maker,
+	 *         which cannot be encoded
+	 */
+	byte[] toCompactForm() {
+		if (customChangeMaker) {
+			return null;
+		}
+		CompactWriter out = new CompactWriter(64);
+		out.writeLong(coinSystem.getKindCount());
+		for (int i = 0; i < coinSystem.getKindCount(); i++) {
+			out.writeLong(coinSystem.getValue(i));
+		}
+		out.writeLong(selectionButtonCount);
+		for (int i = 0; i < buttons.length; i++) {
+			if (buttons[i] == null) {
+				out.writeLong(0);
+			} else {
+				out.writeLong(1);
+				out.writeString(buttons[i].getName());
+				out.writeLong(buttons[i].getCost());
+			}
+		}
+		out.writeLong(coinSlot);
+		RunQueue empty = new RunQueue();
+		for (int i = 0; i < coinBanks.length; i++) {
+			out.writeRuns(coinBanks[i] == null ? empty : coinBanks[i]);
+		}
+		for (int i = 0; i < popRacks.length; i++) {
+			out.writeRuns(popRacks[i]);
+		}
+		out.writeRuns(deliveryChute_change);
+		out.writeRuns(deliveryChute_pop);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Takes a snapshot, as {@link #snapshot()} does, that is to take this
+	 * machine's place in the fleet whose totals are kept by the given
+	 * inventory. The totals are left as they are, since they already count
+	 * what the machine holds.
+	 */
+	VendingMachine fork(FleetInventory inventory) {
+		VendingMachine ret = snapshot();
+		ret.inventory = inventory;
+		ret.inventorySlots = inventory == this.inventory ? inventorySlots : slotsIn(inventory);
+		return ret;
+	}
+
+	private int[] slotsIn(FleetInventory inventory) {
+		int[] ret = new int[coinSystem.getKindCount()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = inventory.slotOf(coinSystem.getValue(i));
+		}
+		return ret;
+	}
+
+	/**
+	 * Adds (sign 1) or removes (sign -1) everything in the banks and racks
+	 * to or from the inventory
+	 */
+	private void account(int sign) {
+		for (int i = 0; i < coinBanks.length; i++) {
+			if (coinBanks[i] != null) {
+				inventory.addCoins(inventorySlots[i / Bank.COUNT], Bank.values()[i % Bank.COUNT],
+						sign * coinBanks[i].size(), sign * coinBanks[i].getTotal());
+			}
+		}
+		for (int i = 0; i < popRacks.length; i++) {
+			RunQueue rack = popRacks[i];
+			for (int r = 0; r < rack.getRunCount(); r++) {
+				inventory.addPops(rack.getRunItem(r), sign * rack.getRunLength(r));
+			}
+		}
+	}
+
+	private void share(VendingMachine other) {
+		coinSystem = other.coinSystem;
+		customChangeMaker = other.customChangeMaker;
+		changeMaker = customChangeMaker ? other.changeMaker : coinSystem.createChangeMaker();
+		available = null;
+		dispense = null;
+		deliveryChute_change = other.deliveryChute_change;
+		deliveryChute_pop = other.deliveryChute_pop;
+		coinBanks = other.coinBanks;
+		popRacks = other.popRacks;
+		selectionButtonCount = other.selectionButtonCount;
+		buttons = other.buttons;
+		coinSlot = other.coinSlot;
+		disown();
+	}
+
+	/**
+	 * Marks every shared structure as not belonging to this machine, so that
+	 * it is copied before being modified
+	 */
+	private void disown() {
+		owner = new Object();
+		coinBanksOwned = false;
+		popRacksOwned = false;
+		buttonsOwned = false;
+	}
+
+	/**
+	 * @return the queue itself if this machine may modify it, else a copy
+	 *         belonging to this machine
+	 */
+	private RunQueue own(RunQueue queue) {
+		return queue.isOwnedBy(owner) ? queue : queue.copy(owner);
+	}
+
+	/**
+	 * @return the queue emptied if this machine may modify it, else a new
+	 *         empty queue belonging to this machine
+	 */
+	private RunQueue cleared(RunQueue queue) {
+		if (queue.isOwnedBy(owner)) {
+			queue.clear();
+			return queue;
+		}
+		return new RunQueue(owner);
+	}
+
+	private RunQueue changeChute() {
+		return deliveryChute_change = own(deliveryChute_change);
+	}
+
+	private RunQueue popChute() {
+		return deliveryChute_pop = own(deliveryChute_pop);
+	}
+
+	private RunQueue getPopRack(int buttonIndex) {
+		if (!popRacksOwned) {
+			popRacks = popRacks.clone();
+			popRacksOwned = true;
+		}
+		return popRacks[buttonIndex] = own(popRacks[buttonIndex]);
+	}
+
 	public int getSelectionButtonCount() {
 		return selectionButtonCount;
 	}
 
-	public void setButton(String name, Integer cost) throws IllegalArgumentException {
-		buttons.add(new VmButton(name, cost));
-		popInventory.put(name, new ArrayDeque<Pop>());
+	/**
+	 * @return true if the selection button has been given a pop and a cost
+	 */
+	public boolean isConfigured(int buttonIndex) {
+		return buttonIndex >= 0 && buttonIndex < buttons.length && buttons[buttonIndex] != null;
+	}
+
+	/**
+	 * Tells whether a selection button is configured in a machine's compact
+	 * form, without recreating the machine
+	 * 
+	 * @see #isConfigured(int)
+	 */
+	static boolean isConfigured(byte[] compactForm, int buttonIndex) throws IllegalStateException {
+		CompactReader in = new CompactReader(compactForm);
+		int kindCount = in.readInt();
+		for (int i = 0; i < kindCount; i++) {
+			in.readLong();
+		}
+		int buttonCount = in.readInt();
+		if (buttonIndex < 0 || buttonIndex > buttonCount - 1) {
+			return false;
+		}
+		for (int i = 0; i < buttonIndex; i++) {
+			if (in.readLong() != 0) {
+				in.readString();
+				in.readLong();
+			}
+		}
+		return in.readLong() != 0;
+	}
+
+	/**
+	 * Sets the name and cost of the pop sold by a selection button. Pops
+	 * already in the button's rack stay there.
+	 */
+	public void setButton(int buttonIndex, String name, Integer cost)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		if (buttonIndex < 0 || buttonIndex > buttons.length - 1) {
+			throw new IndexOutOfBoundsException("button doesn't exist");
+		}
+		VmButton button = new VmButton(name, cost);
+		if (!buttonsOwned) {
+			buttons = buttons.clone();
+			buttonsOwned = true;
+		}
+		buttons[buttonIndex] = button;
+	}
+
+	/**
+	 * Replaces the strategy used to pick change. By default the strategy suited
+	 * to the machine's coin kinds is used.
+	 */
+	public void setChangeMaker(ChangeMaker changeMaker) throws IllegalArgumentException {
+		if (changeMaker == null) {
+			throw new IllegalArgumentException("arguments may not be null");
+		}
+		this.changeMaker = changeMaker;
+		this.customChangeMaker = true;
+	}
+
+	public CoinSystem getCoinSystem() {
+		return coinSystem;
 	}
 
 	public int getCoinTypeCount() {
-		return coinTypes.size();
+		return coinSystem.getKindCount();
 	}
 
 	public void addCoin(int coinKindIndex, Coin coin) throws IndexOutOfBoundsException, IllegalArgumentException {
-		if (coinKindIndex < 0 || coinKindIndex > coinTypes.size() - 1) {
+		addCoins(coinKindIndex, coin.getValue(), 1);
+	}
+
+	/**
+	 * Loads count coins of the given value into the change bank of a coin
+	 * kind, in time independent of count
+	 */
+	public void addCoins(int coinKindIndex, int value, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		if (coinKindIndex < 0 || coinKindIndex > coinSystem.getKindCount() - 1) {
 			throw new IndexOutOfBoundsException("coin index out of bounds");
 		} else {
-			if (coin.getValue() < 0) {
-				throw new IllegalArgumentException("coin values cannot be negative");
+			if (value <= 0) {
+				throw new IllegalArgumentException("coin values must be positive");
+			}
+			if (count < 0) {
+				throw new IllegalArgumentException("coin count cannot be negative");
+			}
+			getCoinBank(coinKindIndex, Bank.CHANGE).add(value, count);
+			if (inventory != null) {
+				inventory.addCoins(inventorySlots[coinKindIndex], Bank.CHANGE, count, value * count);
 			}
-			coinInventory.get(coinTypes.get(coinKindIndex)).get("change").add(coin);
 		}
 	}
 
 	public void addPop(int popKindIndex, Pop soda) throws IndexOutOfBoundsException, IllegalArgumentException {
-		if (popKindIndex < 0 || popKindIndex > buttons.size() - 1) {
+		addPops(popKindIndex, soda.getName(), 1);
+	}
+
+	/**
+	 * Checks the count of a count-based load of coins, in the same way for
+	 * every factory
+	 * 
+	 * @return true if there is anything to load
+	 */
+	static boolean checkCoinLoad(long count) throws IllegalArgumentException {
+		if (count < 0) {
+			throw new IllegalArgumentException("counts cannot be negative");
+		}
+		return count > 0;
+	}
+
+	/**
+	 * Checks the brand and count of a count-based load of pops, in the same
+	 * way for every factory. The brand is only checked if there is anything
+	 * to load.
+	 * 
+	 * @return true if there is anything to load
+	 */
+	static boolean checkPopLoad(String name, long count) throws IllegalArgumentException {
+		if (!checkCoinLoad(count)) {
+			return false;
+		}
+		if (name == null) {
+			throw new IllegalArgumentException("arguments may not be null");
+		}
+		if (name.isEmpty() || name.length() < 3) {
+			throw new IllegalArgumentException("pop name cannot be an empty string");
+		}
+		return true;
+	}
+
+	/**
+	 * Loads count pops of the given brand into the rack of a selection button,
+	 * in time independent of count
+	 */
+	public void addPops(int popKindIndex, String brand, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		if (popKindIndex < 0 || popKindIndex > buttons.length - 1 || buttons[popKindIndex] == null) {
 			throw new IndexOutOfBoundsException("pop index out of bounds");
 		} else {
-			if (soda.getName().isEmpty() || soda.getName().length() < 3) {
+			if (brand.isEmpty() || brand.length() < 3) {
 				throw new IllegalArgumentException("pop name cannot be an empty string");
 			}
-			popInventory.get(buttons.get(popKindIndex).getName()).add(soda);
+			if (count < 0) {
+				throw new IllegalArgumentException("pop count cannot be negative");
+			}
+			int id = Brands.intern(brand);
+			getPopRack(popKindIndex).add(id, count);
+			if (inventory != null) {
+				inventory.addPops(id, count);
+			}
 		}
 	}
 
 	public void putCoin(Coin coin) {
-		if (coinInventory.containsKey(coin.getValue())) {
-			coinInventory.get(coin.getValue()).get("purchase").add(coin);
-			coinSlot += coin.getValue();
+		putCoin(coin.getValue());
+	}
+
+	/**
+	 * Inserts a coin of the given value without needing a Coin object
+	 *
+	 * @return true if the coin was accepted as credit, false if it was sent
+	 *         to the delivery chute
+	 * @throws IllegalArgumentException
+	 *             If the value is 0 or negative, which no coin can have.
+	 */
+	public boolean putCoin(int value) throws IllegalArgumentException {
+		if (value <= 0) {
+			throw new IllegalArgumentException("coin values must be positive");
+		}
+		int coinKindIndex = coinSystem.indexOf(value);
+		if (coinKindIndex >= 0) {
+			getCoinBank(coinKindIndex, Bank.PAYMENT).add(value, 1);
+			coinSlot += value;
+			if (inventory != null) {
+				inventory.addCoins(inventorySlots[coinKindIndex], Bank.PAYMENT, 1, value);
+			}
+			return true;
 		} else {
-			deliveryChute_change.add(coin);
+			changeChute().add(value, 1);
+			return false;
 		}
 	}
 
 	public Pop grabPop() {
-		return deliveryChute_pop.pollFirst();
+		if (deliveryChute_pop.isEmpty()) {
+			return null;
+		}
+		return new Pop(Brands.getName(popChute().poll()));
 	}
 
 	public Coin grabCoin() {
-		return deliveryChute_change.pollFirst();
+		if (deliveryChute_change.isEmpty()) {
+			return null;
+		}
+		return new Coin(changeChute().poll());
 	}
 
-	public List<Coin> unloadCoins(String bank) {
-		ArrayList<Coin> ret = new ArrayList<Coin>();
-		for (HashMap<String, ArrayDeque<Coin>> denomination : coinInventory.values()) {
-			ret.addAll(denomination.get(bank));
-			denomination.get(bank).clear();
+	/**
+	 * Empties the delivery chute into the supplied collection, coins first
+	 */
+	public void drainTo(Collection<? super Deliverable> into) {
+		for (int i = 0; i < deliveryChute_change.getRunCount(); i++) {
+			int value = deliveryChute_change.getRunItem(i);
+			for (long n = deliveryChute_change.getRunLength(i); n > 0; n--) {
+				into.add(new Coin(value));
+			}
+		}
+		for (int i = 0; i < deliveryChute_pop.getRunCount(); i++) {
+			String name = Brands.getName(deliveryChute_pop.getRunItem(i));
+			for (long n = deliveryChute_pop.getRunLength(i); n > 0; n--) {
+				into.add(new Pop(name));
+			}
 		}
+		deliveryChute_change = cleared(deliveryChute_change);
+		deliveryChute_pop = cleared(deliveryChute_pop);
+	}
+
+	/**
+	 * Empties the delivery chute in time proportional to the number of runs
+	 * in it. The returned list only creates Coin and Pop objects as they are
+	 * read.
+	 */
+	public DeliveryList drainChute() {
+		DeliveryList ret = new DeliveryList(new CoinList(deliveryChute_change), new PopList(deliveryChute_pop));
+		deliveryChute_change = cleared(deliveryChute_change);
+		deliveryChute_pop = cleared(deliveryChute_pop);
 		return ret;
 	}
 
-	public List<Pop> unloadPops() {
-		ArrayList<Pop> ret = new ArrayList<Pop>();
-		for (ArrayDeque<Pop> popList : popInventory.values()) {
-			ret.addAll(popList);
-			popList.clear();
+	/**
+	 * Empties the delivery chute, only adding what it held to the summary
+	 */
+	public void drainSummary(ChuteSummary into) {
+		into.addCoins(deliveryChute_change);
+		into.addPops(deliveryChute_pop);
+		deliveryChute_change = cleared(deliveryChute_change);
+		deliveryChute_pop = cleared(deliveryChute_pop);
+	}
+
+	/**
+	 * Moves the contents of the given bank of every coin kind, in coin kind
+	 * order, into the supplied queue
+	 */
+	public void unloadCoins(Bank bank, RunQueue into) {
+		if (!coinBanksOwned) {
+			coinBanks = coinBanks.clone();
+			coinBanksOwned = true;
 		}
-		return ret;
+		for (int i = bank.ordinal(); i < coinBanks.length; i += Bank.COUNT) {
+			if (coinBanks[i] != null) {
+				if (inventory != null) {
+					inventory.addCoins(inventorySlots[i / Bank.COUNT], bank, -coinBanks[i].size(),
+							-coinBanks[i].getTotal());
+				}
+				coinBanks[i].appendTo(into);
+				coinBanks[i] = cleared(coinBanks[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return the combined value of the given bank over every coin kind
+	 */
+	public long getBankTotal(Bank bank) {
+		long total = 0;
+		for (int i = bank.ordinal(); i < coinBanks.length; i += Bank.COUNT) {
+			if (coinBanks[i] != null) {
+				total += coinBanks[i].getTotal();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Banks are only created once something is put in them, so that machines
+	 * with very many coin kinds stay cheap to construct
+	 */
+	private RunQueue getCoinBank(int coinKindIndex, Bank bank) {
+		if (!coinBanksOwned) {
+			coinBanks = coinBanks.clone();
+			coinBanksOwned = true;
+		}
+		int slot = coinKindIndex * Bank.COUNT + bank.ordinal();
+		if (coinBanks[slot] == null) {
+			coinBanks[slot] = new RunQueue(owner);
+		}
+		return coinBanks[slot] = own(coinBanks[slot]);
 	}
 
-	public void purchase(int buttonIndex) throws IndexOutOfBoundsException {
-		if (buttonIndex < 0 || buttonIndex > buttons.size() - 1) {
+	/**
+	 * Empties every pop rack. The returned list only creates Pop objects as
+	 * they are read.
+	 */
+	public PopList unloadPops() {
+		RunQueue ret = new RunQueue();
+		for (int i = 0; i < popRacks.length; i++) {
+			if (!popRacks[i].isEmpty()) {
+				if (inventory != null) {
+					RunQueue rack = popRacks[i];
+					for (int r = 0; r < rack.getRunCount(); r++) {
+						inventory.addPops(rack.getRunItem(r), -rack.getRunLength(r));
+					}
+				}
+				getPopRack(i).drainTo(ret);
+			}
+		}
+		return new PopList(ret);
+	}
+
+	/**
+	 * @return true if a pop was delivered
+	 */
+	public boolean purchase(int buttonIndex) throws IndexOutOfBoundsException {
+		if (buttonIndex < 0 || buttonIndex > buttons.length - 1 || buttons[buttonIndex] == null) {
 			throw new IndexOutOfBoundsException("button doesn't exist");
 		}
-		int cost = buttons.get(buttonIndex).getCost();
+		int cost = buttons[buttonIndex].getCost();
 		if (cost > coinSlot) {
 			// not enough money
 		} else {
-			if (popInventory.get(buttons.get(buttonIndex).getName()).isEmpty()) {
+			if (popRacks[buttonIndex].isEmpty()) {
 				// no more pop
 			} else {
-				deliveryChute_pop.add(popInventory.get(buttons.get(buttonIndex).getName()).pop());
+				if (inventory != null) {
+					inventory.addPops(popRacks[buttonIndex].peek(), -1);
+				}
+				getPopRack(buttonIndex).transferTo(popChute(), 1);
 				int dueChange = coinSlot - cost;
-				Iterator<Integer> it = sortedCoins.iterator();
-				while (it.hasNext()) {
-					int denomination = it.next();
-					ArrayDeque<Coin> changeSlot = coinInventory.get(denomination).get("change");
-					while (dueChange >= denomination && !changeSlot.isEmpty()) {
-						deliveryChute_change.add(changeSlot.pop());
-						dueChange -= denomination;
+				if (available == null) {
+					available = new long[coinSystem.getKindCount()];
+					dispense = new long[coinSystem.getKindCount()];
+				}
+				for (int i = 0; i < available.length; i++) {
+					RunQueue changeSlot = coinBanks[i * Bank.COUNT + Bank.CHANGE.ordinal()];
+					available[i] = changeSlot == null ? 0 : changeSlot.size();
+				}
+				long paid = changeMaker.makeChange(dueChange, available, dispense);
+				int[] sortedKinds = coinSystem.getSortedKinds();
+				for (int i = 0; i < sortedKinds.length; i++) {
+					if (dispense[sortedKinds[i]] > 0) {
+						RunQueue changeSlot = getCoinBank(sortedKinds[i], Bank.CHANGE);
+						long before = changeSlot.getTotal();
+						changeSlot.transferTo(changeChute(), dispense[sortedKinds[i]]);
+						if (inventory != null) {
+							inventory.addCoins(inventorySlots[sortedKinds[i]], Bank.CHANGE, -dispense[sortedKinds[i]],
+									changeSlot.getTotal() - before);
+						}
 					}
 				}
-				coinSlot = dueChange;
+				coinSlot = dueChange - (int) paid;
+				return true;
 			}
 		}
+		return false;
 	}
 }
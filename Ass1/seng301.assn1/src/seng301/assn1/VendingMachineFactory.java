@@ -2,7 +2,8 @@ package seng301.assn1;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 import org.lsmr.vending.frontend1.Coin;
@@ -497,6 +498,38 @@ public class VendingMachineFactory implements IVendingMachineFactory {
 	 */
 	private ArrayList<VendingMachine> machines;
 
+	/**
+	 * Whether the machine list and each machine in it belong to this factory
+	 * alone, or are still shared with a snapshot
+	 */
+	private boolean machinesOwned;
+	private BitSet ownedMachines;
+
+	/**
+	 * The handle of each machine, created as needed, and a count of the
+	 * snapshots and restores that may have replaced machines handles hold on
+	 * to
+	 */
+	private ArrayList<MachineHandle> handles;
+	private int generation;
+
+	/**
+	 * Totals of what the machines hold, kept up to date by the machines
+	 */
+	private FleetInventory inventory;
+
+	/**
+	 * Where hibernated machines are kept (null while hibernation is off), how
+	 * long a machine must go unused before it hibernates, the time of the
+	 * last sweep, when each machine was last used (as the time of the sweep
+	 * before) and which machines are hibernating
+	 */
+	private HibernationStore store;
+	private long idleNanos;
+	private long clock;
+	private long[] lastUse;
+	private BitSet hibernating;
+
 	/**
 	 * This is the method that is called to run your program.
 	 * 
@@ -519,119 +552,441 @@ public class VendingMachineFactory implements IVendingMachineFactory {
 	 */
 	public VendingMachineFactory() {
 		machines = new ArrayList<VendingMachine>();
+		machinesOwned = true;
+		ownedMachines = new BitSet();
+		handles = new ArrayList<MachineHandle>();
+		inventory = new FleetInventory();
 	}
 
-	@Override
-	public List<Deliverable> extractFromDeliveryChute(int vmIndex) throws IndexOutOfBoundsException {
-		if (vmIndex < 0 || vmIndex > machines.size() - 1) {
-			throw new IndexOutOfBoundsException("the selected vending machine is not yet constructed");
+	/**
+	 * Takes a snapshot of every vending machine in constant time. Machines are
+	 * shared with the snapshot until either side changes them; only the
+	 * machines actually changed are copied, and only in the parts changed.
+	 * 
+	 * @return an independent factory in the current state of this one
+	 */
+	public VendingMachineFactory snapshot() {
+		wakeAll();
+		VendingMachineFactory ret = new VendingMachineFactory();
+		ret.machines = machines;
+		ret.machinesOwned = false;
+		ret.inventory = inventory.copy();
+		machinesOwned = false;
+		ownedMachines = new BitSet();
+		generation++;
+		return ret;
+	}
+
+	/**
+	 * Returns every vending machine, in constant time, to the state held by a
+	 * snapshot. The snapshot is unaffected and can be restored again later.
+	 */
+	public void restore(VendingMachineFactory snapshot) throws IllegalArgumentException {
+		if (snapshot == null) {
+			throw new IllegalArgumentException("arguments may not be null");
 		}
-		List<Deliverable> res = new ArrayList<Deliverable>();
-		Coin retc = machines.get(vmIndex).grabCoin();
-		while (retc != null) {
-			res.add(retc);
-			retc = machines.get(vmIndex).grabCoin();
+		snapshot.wakeAll();
+		if (hibernating != null) {
+			for (int i = hibernating.nextSetBit(0); i >= 0; i = hibernating.nextSetBit(i + 1)) {
+				store.remove(i);
+			}
+			hibernating.clear();
 		}
-		Pop retp = machines.get(vmIndex).grabPop();
-		while (retp != null) {
-			res.add(retp);
-			retp = machines.get(vmIndex).grabPop();
+		machines = snapshot.machines;
+		machinesOwned = false;
+		inventory = snapshot.inventory.copy();
+		ownedMachines = new BitSet();
+		if (lastUse != null) {
+			// the snapshot may hold more machines than this factory did
+			if (lastUse.length < machines.size()) {
+				lastUse = new long[machines.size()];
+			}
+			Arrays.fill(lastUse, clock);
 		}
-		return res;
+		snapshot.machinesOwned = false;
+		snapshot.ownedMachines = new BitSet();
+		generation++;
+		snapshot.generation++;
 	}
 
-	@Override
-	public void insertCoin(int vmIndex, Coin coin) throws IndexOutOfBoundsException, NullPointerException {
-		if (vmIndex < 0 || vmIndex > machines.size() - 1) {
-			throw new IndexOutOfBoundsException("the selected vending machine is not yet constructed");
+	/**
+	 * Returns a machine this factory may modify, first replacing it with a
+	 * snapshot of itself if it is still shared. The index must already have
+	 * been checked.
+	 */
+	private VendingMachine machine(int vmIndex) {
+		if (store != null) {
+			lastUse[vmIndex] = clock;
+			if (hibernating.get(vmIndex)) {
+				wake(vmIndex);
+			}
 		}
-		if (coin == null) {
-			throw new NullPointerException("coin cannot be null");
+		if (!ownedMachines.get(vmIndex)) {
+			ownMachines();
+			machines.set(vmIndex, machines.get(vmIndex).fork(inventory));
+			ownedMachines.set(vmIndex);
 		}
-		machines.get(vmIndex).putCoin(coin);
+		return machines.get(vmIndex);
 	}
 
-	@Override
-	public void pressButton(int vmIndex, int value) throws IndexOutOfBoundsException {
+	/**
+	 * Returns a machine this factory may modify, for a handle
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 *             If the vmIndex is greater than or equal to the number of
+	 *             vending machines currently constructed.
+	 */
+	VendingMachine resolve(int vmIndex) throws IndexOutOfBoundsException {
 		if (vmIndex < 0 || vmIndex > machines.size() - 1) {
 			throw new IndexOutOfBoundsException("the selected vending machine is not yet constructed");
 		}
-		if (value < 0 || value > machines.get(vmIndex).getSelectionButtonCount() - 1) {
-			throw new IndexOutOfBoundsException("the button does not exist");
-		}
-		machines.get(vmIndex).purchase(value);
+		return machine(vmIndex);
 	}
 
-	@Override
-	public int constructNewVendingMachine(List<Integer> coinKinds, int selectionButtonCount)
-			throws IllegalArgumentException, IllegalStateException {
-		if (machines.add(new VendingMachine(coinKinds, selectionButtonCount))) { // true
-																					// if
-																					// OK
-			return machines.size() - 1; // index of new machine
+	/**
+	 * @return a number that changes whenever machines held by handles may have
+	 *         been replaced
+	 */
+	int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Makes the factory hibernate machines left unused for longer than the
+	 * given time when {@link #hibernateIdleMachines()} is called. A
+	 * hibernating machine is held only in compact form by the store, and is
+	 * brought back transparently the next time it is used. Snapshots and
+	 * restores wake every hibernating machine first.
+	 * 
+	 * @param store
+	 *            where to keep hibernating machines, or null to wake every
+	 *            machine and stop hibernating them
+	 */
+	public void setHibernation(long idleNanos, HibernationStore store) throws IllegalArgumentException {
+		if (idleNanos < 0) {
+			throw new IllegalArgumentException("idle time cannot be negative");
+		}
+		wakeAll();
+		this.store = store;
+		this.idleNanos = idleNanos;
+		if (store == null) {
+			lastUse = null;
+			hibernating = null;
 		} else {
-			return -1; // error occurred
+			clock = System.nanoTime();
+			lastUse = new long[Math.max(16, machines.size())];
+			Arrays.fill(lastUse, clock);
+			hibernating = new BitSet();
 		}
 	}
 
-	@Override
-	public void configureVendingMachine(int vmIndex, List<String> popNames, List<Integer> popCosts)
-			throws IndexOutOfBoundsException, IllegalArgumentException {
-		if (vmIndex < 0 || vmIndex > machines.size() - 1) {
-			throw new IndexOutOfBoundsException("the selected vending machine is not yet constructed");
+	/**
+	 * Hibernates every machine not used since the configured idle time, and
+	 * that is neither shared with a snapshot nor using a custom change maker.
+	 * Use is noted at the granularity of calls to this method, so it should be
+	 * called more often than the idle time.
+	 * 
+	 * @return the number of machines hibernated
+	 * @throws IllegalStateException
+	 *             If hibernation has not been set up.
+	 */
+	public int hibernateIdleMachines() throws IllegalStateException {
+		if (store == null) {
+			throw new IllegalStateException("hibernation is not enabled");
 		}
-		if (popNames == null || popCosts == null) {
-			throw new IllegalArgumentException("arguments may not be null");
+		long now = System.nanoTime();
+		int ret = 0;
+		for (int i = 0; i < machines.size(); i++) {
+			if (now - lastUse[i] > idleNanos && ownedMachines.get(i) && !hibernating.get(i)) {
+				byte[] form = machines.get(i).toCompactForm();
+				if (form != null) {
+					store.put(i, form);
+					machines.set(i, null);
+					hibernating.set(i);
+					if (i < handles.size()) {
+						handles.get(i).release();
+					}
+					ret++;
+				}
+			}
+		}
+		clock = now;
+		// handles skip the factory while their generation matches, so make
+		// them come back once to note their use and drop hibernated machines
+		generation++;
+		return ret;
+	}
+
+	/**
+	 * @return the number of machines currently hibernating
+	 */
+	public int getHibernatingCount() {
+		return hibernating == null ? 0 : hibernating.cardinality();
+	}
+
+	private void wake(int vmIndex) {
+		byte[] form = store.take(vmIndex);
+		if (form == null) {
+			throw new IllegalStateException("the store lost a hibernating machine");
 		}
-		if (popNames.size() != machines.get(vmIndex).getSelectionButtonCount()
-				|| popCosts.size() != machines.get(vmIndex).getSelectionButtonCount()) {
-			throw new IllegalArgumentException("data lists do not match the number of buttons constructed");
+		machines.set(vmIndex, new VendingMachine(form, inventory, null));
+		hibernating.clear(vmIndex);
+	}
+
+	private void wakeAll() {
+		if (hibernating != null) {
+			for (int i = hibernating.nextSetBit(0); i >= 0; i = hibernating.nextSetBit(i + 1)) {
+				wake(i);
+			}
 		}
-		Iterator<String> itN = popNames.iterator();
-		Iterator<Integer> itC = popCosts.iterator();
-		while (itN.hasNext() && itC.hasNext()) {
-			machines.get(vmIndex).setButton(itN.next(), itC.next());
+	}
+
+	private void ownMachines() {
+		if (!machinesOwned) {
+			machines = new ArrayList<VendingMachine>(machines);
+			machinesOwned = true;
 		}
 	}
 
-	@Override
-	public void loadCoins(int vmIndex, int coinKindIndex, Coin... coins)
-			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
+	/**
+	 * @return the number of vending machines constructed
+	 */
+	public int getVendingMachineCount() {
+		return machines.size();
+	}
+
+	/**
+	 * Gives direct access to a vending machine, for operations not covered by
+	 * {@link IVendingMachineFactory}.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 *             If the vmIndex is less than 0 or greater than or equal to
+	 *             the number of vending machines currently constructed.
+	 */
+	public VendingMachine getVendingMachine(int vmIndex) throws IndexOutOfBoundsException {
+		return getHandle(vmIndex).getVendingMachine();
+	}
+
+	/**
+	 * Gives the running totals of the coins and pops held by every vending
+	 * machine of the factory. The totals are kept up to date as machines
+	 * change, so reading them takes constant time and leaves the machines
+	 * alone.
+	 */
+	public FleetInventory getInventory() {
+		return inventory;
+	}
+
+	/**
+	 * Returns the handle of a vending machine, through which it can be
+	 * operated without an index.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 *             If the vmIndex is less than 0 or greater than or equal to
+	 *             the number of vending machines currently constructed.
+	 */
+	public MachineHandle getHandle(int vmIndex) throws IndexOutOfBoundsException {
 		if (vmIndex < 0 || vmIndex > machines.size() - 1) {
 			throw new IndexOutOfBoundsException("the selected vending machine is not yet constructed");
 		}
-		if (coinKindIndex < 0 || coinKindIndex > machines.get(vmIndex).getCoinTypeCount() - 1) {
-			throw new IndexOutOfBoundsException("the coinKindIndex is out of bounds");
+		while (handles.size() <= vmIndex) {
+			handles.add(new MachineHandle(this, handles.size()));
 		}
-		if (coins == null) {
-			throw new NullPointerException("coin array cannot be null");
+		return handles.get(vmIndex);
+	}
+
+	@Override
+	public List<Deliverable> extractFromDeliveryChute(int vmIndex) throws IndexOutOfBoundsException {
+		return getHandle(vmIndex).extractFromDeliveryChute();
+	}
+
+	/**
+	 * Empties the delivery chute of a vending machine without creating any
+	 * Coin or Pop objects, adding the value of the coins and the number of
+	 * pops of each brand to the summary.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 *             If the vmIndex is less than 0 or greater than or equal to
+	 *             the number of vending machines currently constructed.
+	 */
+	public void extractSummaryFromDeliveryChute(int vmIndex, ChuteSummary summary)
+			throws IndexOutOfBoundsException {
+		getHandle(vmIndex).extractSummaryFromDeliveryChute(summary);
+	}
+
+	/**
+	 * Carries out a batch of customer interactions in order, writing the
+	 * outcome of each into the results. Every command is checked before any
+	 * is carried out, so a batch either fails as a whole or runs to the end;
+	 * once the buffers have grown to the batch size nothing is allocated.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 *             If a command names a vending machine that is not yet
+	 *             constructed, or a button that does not exist or has not
+	 *             been configured.
+	 * @throws IllegalArgumentException
+	 *             If a coin value is not positive.
+	 */
+	public void execute(CommandBuffer commands, CommandResults results)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		// validate before anything runs, without forking or waking machines
+		int size = commands.size();
+		int current = -1;
+		VendingMachine machine = null;
+		byte[] form = null;
+		for (int i = 0; i < size; i++) {
+			int vmIndex = commands.getMachine(i);
+			if (vmIndex != current) {
+				if (vmIndex < 0 || vmIndex > machines.size() - 1) {
+					throw new IndexOutOfBoundsException("the selected vending machine is not yet constructed");
+				}
+				current = vmIndex;
+				machine = machines.get(vmIndex);
+				form = null;
+			}
+			switch (commands.getOperation(i)) {
+			case CommandBuffer.INSERT_COIN:
+				if (commands.getArgument(i) <= 0) {
+					throw new IllegalArgumentException("coin values must be positive");
+				}
+				break;
+			case CommandBuffer.PRESS_BUTTON:
+				boolean configured;
+				if (machine != null) {
+					configured = machine.isConfigured(commands.getArgument(i));
+				} else {
+					if (form == null) {
+						form = store.get(vmIndex);
+					}
+					configured = VendingMachine.isConfigured(form, commands.getArgument(i));
+				}
+				if (!configured) {
+					throw new IndexOutOfBoundsException("the button does not exist");
+				}
+				break;
+			}
 		}
-		for (int i = 0; i < coins.length; i++) {
-			if (coins[i] == null) {
-				throw new NullPointerException("coin cannot be null");
+
+		results.reset(size);
+		ChuteSummary summary = results.getSummary();
+		current = -1;
+		for (int i = 0; i < size; i++) {
+			int vmIndex = commands.getMachine(i);
+			if (vmIndex != current) {
+				current = vmIndex;
+				machine = machine(vmIndex);
+			}
+			switch (commands.getOperation(i)) {
+			case CommandBuffer.INSERT_COIN:
+				results.set(i, machine.putCoin(commands.getArgument(i)) ? 1 : 0);
+				break;
+			case CommandBuffer.PRESS_BUTTON:
+				results.set(i, machine.purchase(commands.getArgument(i)) ? 1 : 0);
+				break;
+			case CommandBuffer.EXTRACT:
+				long coinValue = summary.getCoinValue();
+				long popCount = summary.getPopCount();
+				machine.drainSummary(summary);
+				results.set(i, summary.getCoinValue() - coinValue, summary.getPopCount() - popCount);
+				break;
 			}
-			machines.get(vmIndex).addCoin(coinKindIndex, coins[i]);
 		}
 	}
 
 	@Override
-	public void loadPops(int vmIndex, int popKindIndex, Pop... pops)
-			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
-		if (vmIndex < 0 || vmIndex > machines.size() - 1) {
-			throw new IndexOutOfBoundsException("the selected vending machine is not yet constructed");
-		}
-		if (popKindIndex < 0 || popKindIndex > machines.get(vmIndex).getSelectionButtonCount() - 1) {
-			throw new IndexOutOfBoundsException("the selected pop kind does not exist");
-		}
-		if (pops == null) {
-			throw new NullPointerException("pop array cannot be null");
+	public void insertCoin(int vmIndex, Coin coin) throws IndexOutOfBoundsException, NullPointerException {
+		getHandle(vmIndex).insertCoin(coin);
+	}
+
+	@Override
+	public void pressButton(int vmIndex, int value) throws IndexOutOfBoundsException {
+		getHandle(vmIndex).pressButton(value);
+	}
+
+	@Override
+	public int constructNewVendingMachine(List<Integer> coinKinds, int selectionButtonCount)
+			throws IllegalArgumentException, IllegalStateException {
+		return constructNewVendingMachineHandle(coinKinds, selectionButtonCount).getIndex();
+	}
+
+	/**
+	 * Constructs a new vending machine, as
+	 * {@link #constructNewVendingMachine(List, int)} does, and returns its
+	 * handle rather than its index.
+	 */
+	public MachineHandle constructNewVendingMachineHandle(List<Integer> coinKinds, int selectionButtonCount)
+			throws IllegalArgumentException, IllegalStateException {
+		return add(new VendingMachine(coinKinds, selectionButtonCount));
+	}
+
+	/**
+	 * Adds a vending machine recreated from its compact form
+	 * 
+	 * @param brands
+	 *            The {@link Brands} id of each brand id in the form, or null
+	 *            if the form was made by this run of the program.
+	 * @see VendingMachine#toCompactForm()
+	 */
+	MachineHandle constructVendingMachineHandle(byte[] compactForm, int[] brands) throws IllegalStateException {
+		return add(new VendingMachine(compactForm, null, brands));
+	}
+
+	/**
+	 * Gives the compact form of a machine without waking, forking or making a
+	 * handle for it. The index must already have been checked.
+	 * 
+	 * @return the form, or null if the machine uses a custom change maker
+	 * @see VendingMachine#toCompactForm()
+	 */
+	byte[] getCompactForm(int vmIndex) {
+		if (hibernating != null && hibernating.get(vmIndex)) {
+			return store.get(vmIndex);
 		}
-		for (int i = 0; i < pops.length; i++) {
-			if (pops[i] == null) {
-				throw new NullPointerException("pop cannot be null");
+		return machines.get(vmIndex).toCompactForm();
+	}
+
+	private MachineHandle add(VendingMachine machine) {
+		machine.setInventory(inventory);
+		ownMachines();
+		machines.add(machine);
+		ownedMachines.set(machines.size() - 1);
+		if (store != null) {
+			if (machines.size() > lastUse.length) {
+				lastUse = Arrays.copyOf(lastUse, Math.max(lastUse.length * 2, machines.size()));
 			}
-			machines.get(vmIndex).addPop(popKindIndex, pops[i]);
+			lastUse[machines.size() - 1] = clock;
 		}
+		return getHandle(machines.size() - 1);
+	}
+
+	@Override
+	public void configureVendingMachine(int vmIndex, List<String> popNames, List<Integer> popCosts)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		getHandle(vmIndex).configure(popNames, popCosts);
+	}
+
+	@Override
+	public void loadCoins(int vmIndex, int coinKindIndex, Coin... coins)
+			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
+		getHandle(vmIndex).loadCoins(coinKindIndex, coins);
+	}
+
+	@Override
+	public void loadPops(int vmIndex, int popKindIndex, Pop... pops)
+			throws IndexOutOfBoundsException, NullPointerException, IllegalArgumentException {
+		getHandle(vmIndex).loadPops(popKindIndex, pops);
+	}
+
+	@Override
+	public void loadCoins(int vmIndex, int coinKindIndex, int value, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		getHandle(vmIndex).loadCoins(coinKindIndex, value, count);
+	}
+
+	@Override
+	public void loadPops(int vmIndex, int popKindIndex, String name, long count)
+			throws IndexOutOfBoundsException, IllegalArgumentException {
+		getHandle(vmIndex).loadPops(popKindIndex, name, count);
 	}
 
 	@Override
@@ -639,10 +994,6 @@ public class VendingMachineFactory implements IVendingMachineFactory {
 		if (vmIndex < 0 || vmIndex > machines.size() - 1) {
 			throw new IndexOutOfBoundsException("the selected vending machine is not yet implemented");
 		}
-		List<List<?>> ret = new ArrayList<List<?>>();
-		ret.add(machines.get(vmIndex).unloadCoins("change"));
-		ret.add(machines.get(vmIndex).unloadCoins("purchase"));
-		ret.add(machines.get(vmIndex).unloadPops());
-		return ret;
+		return getHandle(vmIndex).unload();
 	}
 }